@@ -0,0 +1,130 @@
+import java.util.Arrays;
+
+/**
+ * Distances from a vertex set to every one of its ancestors, sorted by ancestor.
+ * The shortest ancestral path between two sets is the minimum of the summed distances over the ancestors
+ * shared by their labels, so once each set has been searched once any number of pairs can be answered by
+ * merging labels.
+ * This class is immutable - properties cannot be modified after instantiation.
+ * @author ckingsley
+ *
+ */
+final class AncestorLabel {
+	private final int[] ancestors;	// sorted
+	private final int[] dists;
+	
+	
+	/**
+	 * Constructor
+	 * @param ancestors ancestor vertices, sorted
+	 * @param dists distance to each ancestor
+	 */
+	AncestorLabel(int[] ancestors, int[] dists) {
+		this.ancestors = ancestors;
+		this.dists = dists;
+	}
+	
+	
+	/**
+	 * Builds the label from a finished search
+	 * @param bfs search started from the set and run to completion
+	 * @return the label of the set
+	 */
+	static AncestorLabel of(DeluxeBFS bfs) {
+		int n = bfs.visitedCount();
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			int v = bfs.visitedVertex(i);
+			keys[i] = ((long) v << 32) | bfs.distTo(v);
+		}
+		Arrays.sort(keys);
+		
+		int[] ancestors = new int[n];
+		int[] dists = new int[n];
+		for (int i = 0; i < n; i++) {
+			ancestors[i] = (int) (keys[i] >>> 32);
+			dists[i] = (int) keys[i];
+		}
+		return new AncestorLabel(ancestors, dists);
+	}
+	
+	
+	/**
+	 * Returns the number of ancestors in the label
+	 * @return the label size
+	 */
+	int size() {
+		return ancestors.length;
+	}
+	
+	
+	/**
+	 * Returns the i-th ancestor of the label, in increasing vertex order
+	 * @param i index, {@code 0 <= i < size()}
+	 * @return the ancestor
+	 */
+	int ancestor(int i) {
+		return ancestors[i];
+	}
+	
+	
+	/**
+	 * Returns the distance from the set to the i-th ancestor of the label
+	 * @param i index, {@code 0 <= i < size()}
+	 * @return the distance
+	 */
+	int dist(int i) {
+		return dists[i];
+	}
+	
+	
+	/**
+	 * Returns the length of the shortest ancestral path between the sets of two labels
+	 * @param other label of the other set
+	 * @return the length, or -1 if the sets share no ancestor
+	 */
+	int length(AncestorLabel other) {
+		int best = Integer.MAX_VALUE;
+		int i = 0, j = 0;
+		while (i < ancestors.length && j < other.ancestors.length) {
+			if (ancestors[i] < other.ancestors[j]) {
+				i++;
+			} else if (ancestors[i] > other.ancestors[j]) {
+				j++;
+			} else {
+				best = Math.min(best, dists[i] + other.dists[j]);
+				i++;
+				j++;
+			}
+		}
+		return (best == Integer.MAX_VALUE ? -1 : best);
+	}
+	
+	
+	/**
+	 * Returns the length of the shortest ancestral path between the sets of two labels and a common ancestor
+	 * on it
+	 * @param other label of the other set
+	 * @return the length and ancestor, both -1 if the sets share no ancestor
+	 */
+	SAPResult query(AncestorLabel other) {
+		int best = Integer.MAX_VALUE;
+		int ancestor = -1;
+		int i = 0, j = 0;
+		while (i < ancestors.length && j < other.ancestors.length) {
+			if (ancestors[i] < other.ancestors[j]) {
+				i++;
+			} else if (ancestors[i] > other.ancestors[j]) {
+				j++;
+			} else {
+				if (dists[i] + other.dists[j] < best) {
+					best = dists[i] + other.dists[j];
+					ancestor = ancestors[i];
+				}
+				i++;
+				j++;
+			}
+		}
+		return (ancestor == -1 ? new SAPResult(-1, -1) : new SAPResult(best, ancestor));
+	}
+}
@@ -0,0 +1,327 @@
+import java.util.Arrays;
+
+/**
+ * Immutable digraph stored in compressed sparse row form: the heads of the edges leaving vertex v are
+ * {@code targets[offsets[v]] .. targets[offsets[v+1] - 1]}.  Compared to the Bag based Digraph this needs
+ * no per-edge objects or boxing, and a traversal reads each adjacency list from one contiguous run of ints.
+ * Adjacency lists are traversed with
+ * <pre>
+ *     for (int e = G.begin(v); e < G.end(v); e++) {
+ *         int w = G.target(e);
+ *         ...
+ *     }
+ * </pre>
+ * @author ckingsley
+ *
+ */
+public final class CompactDigraph {
+	private final int V;
+	private final int[] offsets;
+	private final int[] targets;
+	private volatile CompactDigraph reverse;	// built on first use
+	
+	
+	/**
+	 * Constructor, copies the edges of a Digraph
+	 * @param G the digraph to copy
+	 */
+	public CompactDigraph(Digraph G) {
+		V = G.V();
+		offsets = new int[V + 1];
+		targets = new int[G.E()];
+	
+		int e = 0;
+		for (int v = 0; v < V; v++) {
+			offsets[v] = e;
+			for (int w : G.adj(v)) {
+				targets[e++] = w;
+			}
+		}
+		offsets[V] = e;
+	}
+	
+	
+	/**
+	 * Constructor, builds the graph from an edge list with a counting sort on the tail vertices.
+	 * Edges leaving the same vertex keep their relative order.
+	 * @param V number of vertices
+	 * @param tails tail vertex of each edge
+	 * @param heads head vertex of each edge
+	 * @param E number of edges, i.e. the used prefix of tails and heads
+	 * @throws IllegalArgumentException unless every vertex satisfies {@code 0 <= v < V}
+	 */
+	public CompactDigraph(int V, int[] tails, int[] heads, int E) {
+		if (V < 0) throw new IllegalArgumentException("Number of vertices must be nonnegative");
+		if (E < 0 || E > tails.length || E > heads.length) {
+			throw new IllegalArgumentException("Number of edges " + E + " does not match the edge arrays");
+		}
+		this.V = V;
+		offsets = new int[V + 1];
+		targets = new int[E];
+	
+		for (int i = 0; i < E; i++) {
+			validateVertex(tails[i]);
+			validateVertex(heads[i]);
+			offsets[tails[i] + 1]++;
+		}
+		for (int v = 0; v < V; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		int[] next = new int[V];
+		for (int i = 0; i < E; i++) {
+			int v = tails[i];
+			targets[offsets[v] + next[v]++] = heads[i];
+		}
+	}
+	
+	
+	/**
+	 * Constructor used by transformations that have already built the row arrays
+	 * @param offsets row offsets, of length V+1
+	 * @param targets edge heads
+	 */
+	CompactDigraph(int[] offsets, int[] targets) {
+		this.V = offsets.length - 1;
+		this.offsets = offsets;
+		this.targets = targets;
+	}
+	
+	
+	/**
+	 * Returns the number of vertices
+	 * @return the number of vertices
+	 */
+	public int V() {
+		return V;
+	}
+	
+	
+	/**
+	 * Returns the number of edges
+	 * @return the number of edges
+	 */
+	public int E() {
+		return targets.length;
+	}
+	
+	
+	/**
+	 * Returns the index of the first edge leaving vertex v
+	 * @param v the vertex
+	 * @return index to pass to target()
+	 */
+	public int begin(int v) {
+		return offsets[v];
+	}
+	
+	
+	/**
+	 * Returns one past the index of the last edge leaving vertex v
+	 * @param v the vertex
+	 * @return end of the edge index range of v
+	 */
+	public int end(int v) {
+		return offsets[v + 1];
+	}
+	
+	
+	/**
+	 * Returns the head of an edge
+	 * @param e edge index, in the range {@code begin(v) .. end(v) - 1} of its tail vertex v
+	 * @return the vertex the edge points to
+	 */
+	public int target(int e) {
+		return targets[e];
+	}
+	
+	
+	/**
+	 * Returns the number of edges leaving vertex v
+	 * @param v the vertex
+	 * @return the outdegree of v
+	 */
+	public int outdegree(int v) {
+		validateVertex(v);
+		return offsets[v + 1] - offsets[v];
+	}
+	
+	
+	/**
+	 * Returns the reverse of this digraph.  It is built on first use and then shared, which is safe as both
+	 * digraphs are immutable.
+	 * @return a digraph with every edge of this one reversed
+	 */
+	public CompactDigraph reverse() {
+		CompactDigraph R = reverse;
+		if (R == null) {
+			R = buildReverse();
+			R.reverse = this;
+			reverse = R;
+		}
+		return R;
+	}
+	
+	
+	/**
+	 * Builds the reverse of this digraph with a counting sort on the head vertices
+	 * @return a digraph with every edge of this one reversed
+	 */
+	private CompactDigraph buildReverse() {
+		int[] revOffsets = new int[V + 1];
+		int[] revTargets = new int[targets.length];
+	
+		for (int e = 0; e < targets.length; e++) {
+			revOffsets[targets[e] + 1]++;
+		}
+		for (int v = 0; v < V; v++) {
+			revOffsets[v + 1] += revOffsets[v];
+		}
+		int[] next = new int[V];
+		for (int v = 0; v < V; v++) {
+			for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+				int w = targets[e];
+				revTargets[revOffsets[w] + next[w]++] = v;
+			}
+		}
+		return new CompactDigraph(revOffsets, revTargets);
+	}
+	
+	
+	/**
+	 * Returns a renumbering of the vertices that keeps related vertices close in memory: breadth-first from the
+	 * vertices with no outgoing edges (the roots of a hypernym DAG) along reversed edges, so each level of the
+	 * hierarchy, and in it the children of each vertex, gets consecutive ids.  Vertices no search reaches, which
+	 * can only lie on cycles, keep their relative order at the end.
+	 * @return array whose entry v is the new id of vertex v, a permutation of 0 .. V-1 to pass to permute()
+	 */
+	public int[] bfsOrder() {
+		CompactDigraph reverse = reverse();
+		int[] newId = new int[V];
+		Arrays.fill(newId, -1);
+		int[] queue = new int[V];
+		int head = 0, tail = 0;
+		for (int v = 0; v < V; v++) {
+			if (offsets[v] == offsets[v + 1]) {
+				newId[v] = tail;
+				queue[tail++] = v;
+			}
+		}
+		while (head < tail) {
+			int v = queue[head++];
+			for (int e = reverse.begin(v); e < reverse.end(v); e++) {
+				int w = reverse.target(e);
+				if (newId[w] == -1) {
+					newId[w] = tail;
+					queue[tail++] = w;
+				}
+			}
+		}
+		for (int v = 0; v < V; v++) {
+			if (newId[v] == -1) newId[v] = tail++;
+		}
+		return newId;
+	}
+	
+	
+	/**
+	 * Returns a copy of this digraph with its vertices renumbered.  Vertex newId[v] of the copy has the edges of
+	 * vertex v, to the renumbered heads, in the same order.
+	 * @param newId new id of each vertex
+	 * @return the renumbered digraph
+	 * @throws IllegalArgumentException unless newId is a permutation of 0 .. V-1
+	 */
+	public CompactDigraph permute(int[] newId) {
+		int[] oldId = inverse(newId);
+		int[] permOffsets = new int[V + 1];
+		int[] permTargets = new int[targets.length];
+		int k = 0;
+		for (int i = 0; i < V; i++) {
+			int v = oldId[i];
+			for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+				permTargets[k++] = newId[targets[e]];
+			}
+			permOffsets[i + 1] = k;
+		}
+		return new CompactDigraph(permOffsets, permTargets);
+	}
+	
+	
+	/**
+	 * Returns the inverse of a permutation of the vertices
+	 * @param p a permutation of 0 .. V-1
+	 * @return array whose entry p[v] is v
+	 * @throws IllegalArgumentException unless p is a permutation of 0 .. V-1
+	 */
+	int[] inverse(int[] p) {
+		if (p == null || p.length != V) {
+			throw new IllegalArgumentException("permutation must have one entry per vertex");
+		}
+		int[] inverse = new int[V];
+		Arrays.fill(inverse, -1);
+		for (int v = 0; v < V; v++) {
+			validateVertex(p[v]);
+			if (inverse[p[v]] != -1) {
+				throw new IllegalArgumentException("vertex " + p[v] + " appears twice in the permutation");
+			}
+			inverse[p[v]] = v;
+		}
+		return inverse;
+	}
+	
+	
+	/**
+	 * Returns a 64-bit hash of the vertex count and every adjacency list, in order, so that files derived from
+	 * a digraph, such as a saved SAPLabelIndex, can tell whether they still belong to it
+	 * @return the fingerprint; equal digraphs have equal fingerprints
+	 */
+	public long fingerprint() {
+		long h = V;
+		for (int v = 0; v <= V; v++) {
+			h = (h ^ offsets[v]) * 0x100000001b3L;
+		}
+		for (int e = 0; e < targets.length; e++) {
+			h = (h ^ targets[e]) * 0x100000001b3L;
+		}
+		// final mix so that small edits change all bits
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	
+	/**
+	 * Does the digraph contain a directed cycle?  Uses Kahn's algorithm, repeatedly removing vertices with no
+	 * incoming edges, so deep graphs cannot overflow the call stack.
+	 * @return {@code true} if there is a directed cycle, {@code false} otherwise
+	 */
+	public boolean hasCycle() {
+		int[] indegree = new int[V];
+		for (int e = 0; e < targets.length; e++) {
+			indegree[targets[e]]++;
+		}
+	
+		int[] queue = new int[V];
+		int head = 0, tail = 0;
+		for (int v = 0; v < V; v++) {
+			if (indegree[v] == 0) queue[tail++] = v;
+		}
+		while (head < tail) {
+			int v = queue[head++];
+			for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+				if (--indegree[targets[e]] == 0) queue[tail++] = targets[e];
+			}
+		}
+		return tail != V;
+	}
+	
+	
+	/**
+	 * Throws an IllegalArgumentException unless {@code 0 <= v < V}
+	 * @param v vertex number to check
+	 */
+	private void validateVertex(int v) {
+		if (v < 0 || v >= V)
+			throw new IllegalArgumentException("vertex " + v + " is not between 0 and " + (V-1));
+	}
+}
@@ -0,0 +1,55 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The course digraphs, wordnet/digraph*.txt, shared by the unit testing mains of the SAP classes.
+ * @author ckingsley
+ *
+ */
+final class CourseDigraphs {
+	static final String[] FILES = {"wordnet/digraph1.txt", "wordnet/digraph2.txt", "wordnet/digraph3.txt",
+			"wordnet/digraph4.txt", "wordnet/digraph5.txt", "wordnet/digraph6.txt", "wordnet/digraph9.txt",
+			"wordnet/digraph-ambiguous-ancestor.txt", "wordnet/digraph-wordnet.txt"};
+	static final int SMALL = 100;	// digraphs of at most this many vertices are checked exhaustively
+	
+	
+	/**
+	 * Not instantiable
+	 */
+	private CourseDigraphs() { }
+	
+	
+	/**
+	 * Loads the course digraphs that are acyclic, printing a line for each one skipped because it has a cycle
+	 * @return the digraphs, keyed by file name in the order of FILES
+	 */
+	static Map<String, CompactDigraph> acyclic() {
+		Map<String, CompactDigraph> digraphs = new LinkedHashMap<String, CompactDigraph>();
+		for (String file : FILES) {
+			CompactDigraph G = new CompactDigraph(new Digraph(new In(file)));
+			if (G.hasCycle()) {
+				StdOut.println(file + ": skipped, has a cycle");
+				continue;
+			}
+			digraphs.put(file, G);
+		}
+		return digraphs;
+	}
+	
+	
+	/**
+	 * Does a result have the expected length and, if there is a path, an ancestor at that total distance?
+	 * The ancestor may differ from the expected one, as a shortest ancestral path need not be unique.
+	 * @param result the result to check
+	 * @param expected the expected result
+	 * @param fromV complete search from the v side
+	 * @param fromW complete search from the w side
+	 * @return {@code true} if it does, {@code false} otherwise
+	 */
+	static boolean agrees(SAPResult result, SAPResult expected, DeluxeBFS fromV, DeluxeBFS fromW) {
+		if (result.length() != expected.length()) return false;
+		if (!result.hasPath()) return result.ancestor() == -1;
+		int a = result.ancestor();
+		return fromV.hasPathTo(a) && fromW.hasPathTo(a) && fromV.distTo(a) + fromW.distTo(a) == result.length();
+	}
+}
@@ -0,0 +1,154 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates synthetic hypernym DAGs shaped like WordNet: a single root, vertices laid out level by level with
+ * each level {@code branching} times wider than the one above until the depth limit, every vertex having a
+ * hypernym on the level directly above and, with probability {@code multiParent}, a second one on any
+ * shallower level.  Vertex ids are shuffled so that, as in the real files, neighbouring ids are not neighbours
+ * in the graph.  Generation is deterministic for a given seed.
+ * @author ckingsley
+ *
+ */
+public final class DAGGenerator {
+	
+	/**
+	 * Not instantiable
+	 */
+	private DAGGenerator() { }
+	
+	
+	/**
+	 * Generates a rooted DAG
+	 * @param V number of vertices
+	 * @param branching ratio of the width of a level to the width of the level above
+	 * @param depth greatest distance of a vertex from the root; vertices left over once the deepest level is
+	 * reached are all placed on it
+	 * @param multiParent probability that a vertex has a second hypernym
+	 * @param seed random seed
+	 * @return the digraph, edges pointing from hyponym to hypernym
+	 * @throws IllegalArgumentException unless {@code V >= 1}, {@code branching >= 1}, {@code depth >= 1} and
+	 * {@code 0 <= multiParent <= 1}
+	 */
+	public static CompactDigraph generate(int V, int branching, int depth, double multiParent, long seed) {
+		if (V < 1) throw new IllegalArgumentException("Number of vertices must be positive");
+		if (branching < 1) throw new IllegalArgumentException("branching factor must be positive");
+		if (depth < 1) throw new IllegalArgumentException("depth must be positive");
+		if (!(multiParent >= 0 && multiParent <= 1)) {
+			throw new IllegalArgumentException("multiParent " + multiParent + " is not between 0 and 1");
+		}
+		Random random = new Random(seed);
+	
+		// levelStart[L] .. levelStart[L+1]-1 are the positions of level L
+		int[] levelStart = new int[depth + 2];
+		int levels = 1;
+		levelStart[1] = 1;
+		for (long width = 1; levels <= depth && levelStart[levels] < V; levels++) {
+			width = Math.min(width * branching, V - levelStart[levels]);
+			if (levels == depth) width = V - levelStart[levels];
+			levelStart[levels + 1] = levelStart[levels] + (int) width;
+		}
+	
+		// id of the vertex at each position
+		int[] id = new int[V];
+		for (int i = 0; i < V; i++) id[i] = i;
+		for (int i = V - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int t = id[i];
+			id[i] = id[j];
+			id[j] = t;
+		}
+	
+		int[] tails = new int[2 * V];
+		int[] heads = new int[2 * V];
+		int E = 0;
+		for (int L = 1; L < levels; L++) {
+			int above = levelStart[L] - levelStart[L - 1];
+			for (int p = levelStart[L]; p < levelStart[L + 1]; p++) {
+				int parent = levelStart[L - 1] + random.nextInt(above);
+				tails[E] = id[p];
+				heads[E++] = id[parent];
+				if (random.nextDouble() < multiParent) {
+					int second = random.nextInt(levelStart[L]);
+					if (second != parent) {
+						tails[E] = id[p];
+						heads[E++] = id[second];
+					}
+				}
+			}
+		}
+		return new CompactDigraph(V, tails, heads, E);
+	}
+	
+	
+	/**
+	 * Wraps a generated DAG in a WordNet whose synset v holds the single noun {@code "n" + v}
+	 * @param G the digraph
+	 * @return the WordNet
+	 */
+	public static WordNet wordNet(CompactDigraph G) {
+		String[] synsets = new String[G.V()];
+		int[] ids = new int[G.V()];
+		for (int v = 0; v < G.V(); v++) {
+			synsets[v] = noun(v);
+			ids[v] = v;
+		}
+		return new WordNet(new NounDictionary(synsets, ids), synsets, G);
+	}
+	
+	
+	/**
+	 * Returns the noun of synset v of a generated WordNet
+	 * @param v the synset id
+	 * @return the noun
+	 */
+	public static String noun(int v) {
+		return "n" + v;
+	}
+	
+	
+	/**
+	 * Writes a generated DAG in the format of synsets.txt and hypernyms.txt, so that it can be loaded by WordNet
+	 * @param G the digraph
+	 * @param synsetFile name of the synsets file to write
+	 * @param hypernymFile name of the hypernyms file to write
+	 * @throws IllegalArgumentException if a file cannot be written
+	 */
+	public static void write(CompactDigraph G, String synsetFile, String hypernymFile) {
+		try (BufferedWriter synsets = Files.newBufferedWriter(Paths.get(synsetFile), StandardCharsets.UTF_8);
+				BufferedWriter hypernyms = Files.newBufferedWriter(Paths.get(hypernymFile), StandardCharsets.UTF_8)) {
+			StringBuilder line = new StringBuilder();
+			for (int v = 0; v < G.V(); v++) {
+				synsets.write(v + "," + noun(v) + ",synthetic synset " + v + "\n");
+				line.setLength(0);
+				line.append(v);
+				for (int e = G.begin(v); e < G.end(v); e++) {
+					line.append(',').append(G.target(e));
+				}
+				hypernyms.write(line.append('\n').toString());
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("cannot write " + synsetFile + " and " + hypernymFile, e);
+		}
+	}
+	
+	
+	/**
+	 * Writes a generated DAG to a pair of files
+	 * @param args V branching depth multiParent seed synsets.txt hypernyms.txt
+	 */
+	public static void main(String[] args) {
+		if (args.length != 7) {
+			StdOut.println("Usage: java DAGGenerator V branching depth multiParent seed synsets.txt hypernyms.txt");
+			return;
+		}
+		CompactDigraph G = generate(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+				Double.parseDouble(args[3]), Long.parseLong(args[4]));
+		write(G, args[5], args[6]);
+		StdOut.println(G.V() + " vertices, " + G.E() + " edges");
+	}
+}
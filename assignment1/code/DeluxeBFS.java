@@ -1,14 +1,65 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
 /**
- * Modified version of BreadthFirstDirectedPaths that optimizes shortest path searches
+ * Modified version of BreadthFirstDirectedPaths that optimizes shortest path searches.
+ *
+ * Levels are expanded direction-optimizing (Beamer, Asanovic and Patterson): normally top-down, following the
+ * edges out of the frontier, but once the frontier's edges outnumber a fraction of the edges not yet explored,
+ * as with wide source sets, bottom-up, where every unreached vertex follows its reversed edges until it finds
+ * a frontier vertex and stops at the first.  A bottom-up level reads each unreached vertex once instead of
+ * checking every edge out of a huge frontier.  Distances are the same either way; the edge a vertex is
+ * reached by, and hence pathTo(), may differ between shortest paths.
+ *
+ * On digraphs of at least PARALLEL_THRESHOLD vertices (system property {@code bfs.parallelThreshold}), given
+ * more than one core, wide levels are expanded level-synchronously on the common fork-join pool.  A top-down
+ * level first lets every unreached vertex claim the smallest frontier position with an edge to it in an
+ * atomic array, then each chunk of the frontier collects the vertices it claimed in edge order in its own
+ * buffer; a bottom-up level gives each chunk a range of vertices.  The buffers are appended to the queue in chunk
+ * order, so a parallel level reaches every vertex by the same edge, and leaves the same queue, as the
+ * sequential one: distTo() and pathTo() do not depend on the mode.
  * @author ckingsley
  *
  */
 public class DeluxeBFS {
 	private static final int INFINITY = Integer.MAX_VALUE;
+	// go bottom-up once frontier edges exceed unexplored edges / ALPHA.  Hypernym graphs have about one edge per
+	// vertex, so unlike the 15 usual for social graphs it only pays once the frontier has the majority of edges.
+	private static final int ALPHA = 1;
+	private static final int BETA = 18;		// stay bottom-up while the frontier holds at least V / BETA vertices
+	static final int PARALLEL_THRESHOLD = Integer.getInteger("bfs.parallelThreshold", 1 << 22);
+	private static final int CHUNK = 4096;		// vertices per parallel task, and smallest frontier worth splitting
+	private static final int UNCLAIMED = Integer.MAX_VALUE;
+	private final boolean directionOptimizing;	// false to expand every level top-down
 	private boolean[] marked;
 	private int[] distTo;
 	private int[] edgeTo;
 	
+	// state for searches that are advanced one level at a time (see start() and expandLevel())
+	private CompactDigraph G;
+	private int[] queue;
+	private int frontierStart;
+	private int frontierEnd;
+	private int depth;
+	private boolean bottomUp;			// direction of the next level
+	private int bottomUpLevels;			// levels expanded bottom-up since start()
+	private int parallelLevels;			// levels expanded in parallel since start()
+	private long unexploredEdges;		// estimate of the edges not yet followed top-down
+	private long edgesScanned;	// maintained only when SAPMetrics.ENABLED
+	private int frontierPeak;
+	
+	// parallel mode only, see the class comment
+	private final AtomicIntegerArray claim;	// smallest frontier position with an edge to each unreached vertex
+	private int[][] chunkBuffer;		// vertices reached by each chunk of the level, in sequential order
+	private int[] chunkCount;
+	private long[] chunkEdges;			// edges scanned by each chunk, only when SAPMetrics.ENABLED
+	
 	
 	/**
      * Computes the shortest path from {@code s} and every other vertex in graph {@code G}.
@@ -17,13 +68,7 @@ public class DeluxeBFS {
      * @throws IllegalArgumentException unless {@code 0 <= v < V}
      */
     public DeluxeBFS(Digraph G, int s) {
-        marked = new boolean[G.V()];
-        distTo = new int[G.V()];
-        edgeTo = new int[G.V()];
-        for (int v = 0; v < G.V(); v++)
-            distTo[v] = INFINITY;
-        validateVertex(s);
-        bfs(G, s);
+        this(new CompactDigraph(G), s);
     }
     
     
@@ -35,16 +80,516 @@ public class DeluxeBFS {
      * @throws IllegalArgumentException unless each vertex {@code v} in {@code sources} satisfies {@code 0 <= v < V}
      */
 	public DeluxeBFS(Digraph G, Iterable<Integer> sources) {
-        marked = new boolean[G.V()];
-        distTo = new int[G.V()];
-        edgeTo = new int[G.V()];
-        validateVertices(sources);
-        for (int v = 0; v < G.V(); v++)
-            distTo[v] = INFINITY;
-        bfs(G, sources);
+        this(new CompactDigraph(G), sources);
     }
 	
 	
+	/**
+     * Computes the shortest path from {@code s} and every other vertex in graph {@code G}.
+     * @param G the digraph, in compressed sparse row form
+     * @param s the source vertex
+     * @throws IllegalArgumentException unless {@code 0 <= v < V}
+     */
+    public DeluxeBFS(CompactDigraph G, int s) {
+        this(G);
+        start(s);
+        bfs();
+    }
+    
+    
+    /**
+     * Computes the shortest path from any one of the source vertices in {@code sources}
+     * to every other vertex in graph {@code G}.
+     * @param G the digraph, in compressed sparse row form
+     * @param sources the source vertices
+     * @throws IllegalArgumentException unless each vertex {@code v} in {@code sources} satisfies {@code 0 <= v < V}
+     */
+	public DeluxeBFS(CompactDigraph G, Iterable<Integer> sources) {
+        this(G);
+        start(sources);
+        bfs();
+    }
+	
+	
+	/**
+	 * Creates an idle search over graph {@code G}; sources are supplied with {@link #start(Iterable)} and the
+	 * search is then advanced one BFS level at a time with {@link #expandLevel()}.
+	 * The object is a reusable workspace: each start() clears only the vertices touched by the previous
+	 * search, so repeated searches allocate nothing.  It is not thread safe - use one per thread.
+	 * @param G the digraph
+	 */
+	DeluxeBFS(CompactDigraph G) {
+		this(G, true);
+	}
+	
+	
+	/**
+	 * Creates an idle search over graph {@code G} that can be kept top-down, for comparing the two directions
+	 * @param G the digraph
+	 * @param directionOptimizing whether levels may be expanded bottom-up; if not, every level is top-down
+	 */
+	DeluxeBFS(CompactDigraph G, boolean directionOptimizing) {
+		this(G, directionOptimizing,
+				ForkJoinPool.getCommonPoolParallelism() > 1 ? PARALLEL_THRESHOLD : Integer.MAX_VALUE);
+	}
+	
+	
+	/**
+	 * Creates an idle search over graph {@code G} with its own parallel threshold, so that the parallel levels
+	 * can be checked against the sequential ones on small digraphs
+	 * @param G the digraph
+	 * @param directionOptimizing whether levels may be expanded bottom-up; if not, every level is top-down
+	 * @param parallelThreshold number of vertices from which wide levels are expanded in parallel, even on a
+	 * single core
+	 */
+	DeluxeBFS(CompactDigraph G, boolean directionOptimizing, int parallelThreshold) {
+		this.G = G;
+		this.directionOptimizing = directionOptimizing;
+		marked = new boolean[G.V()];
+		distTo = new int[G.V()];
+		edgeTo = new int[G.V()];
+		queue = new int[G.V()];
+		for (int v = 0; v < G.V(); v++)
+			distTo[v] = INFINITY;
+		if (G.V() >= parallelThreshold) {
+			claim = new AtomicIntegerArray(G.V());
+			for (int v = 0; v < G.V(); v++)
+				claim.lazySet(v, UNCLAIMED);
+			chunkBuffer = new int[0][];
+			chunkCount = new int[0];
+			chunkEdges = new long[0];
+		} else {
+			claim = null;
+		}
+	}
+	
+	
+	/**
+	 * Starts a level-by-level search from a single source vertex; the source forms the first frontier
+	 * @param s the source vertex
+	 * @throws IllegalArgumentException unless {@code 0 <= s < V}
+	 */
+	void start(int s) {
+		validateVertex(s);
+		reset();
+		frontierStart = 0;
+		frontierEnd = 0;
+		depth = 0;
+		bottomUp = false;
+		bottomUpLevels = 0;
+		parallelLevels = 0;
+		unexploredEdges = G.E();
+		visit(s, s, 0);
+		if (SAPMetrics.ENABLED) {
+			edgesScanned = 0;
+			frontierPeak = 1;
+		}
+	}
+	
+	
+	/**
+	 * Starts a level-by-level search from a set of source vertices; the distinct sources form the first frontier
+	 * @param sources the source vertices
+	 * @throws IllegalArgumentException unless each vertex {@code v} in {@code sources} satisfies {@code 0 <= v < V}
+	 */
+	void start(Iterable<Integer> sources) {
+		validateVertices(sources);
+		reset();
+		frontierStart = 0;
+		frontierEnd = 0;
+		depth = 0;
+		bottomUp = false;
+		bottomUpLevels = 0;
+		parallelLevels = 0;
+		unexploredEdges = G.E();
+		for (int s : sources) {
+			if (!marked[s]) {
+				visit(s, s, 0);
+			}
+		}
+		if (SAPMetrics.ENABLED) {
+			edgesScanned = 0;
+			frontierPeak = frontierEnd;
+		}
+	}
+	
+	
+	/**
+	 * Replaces the current frontier with the vertices first reached from it, i.e. those at distance {@code depth() + 1}
+	 */
+	void expandLevel() {
+		int levelStart = frontierStart;
+		int levelEnd = frontierEnd;
+		frontierStart = levelEnd;
+		
+		// only a frontier of at least V / BETA vertices is worth counting edges for, or going bottom-up
+		boolean wide = levelEnd - levelStart >= Math.max(1, G.V() / BETA);
+		if (directionOptimizing && !bottomUp && wide) {
+			long frontierEdges = 0;
+			for (int i = levelStart; i < levelEnd; i++) {
+				frontierEdges += G.end(queue[i]) - G.begin(queue[i]);
+			}
+			// the frontier's own edges are about to be explored, so they are not counted against it
+			unexploredEdges -= frontierEdges;
+			bottomUp = frontierEdges > unexploredEdges / ALPHA;
+		} else if (bottomUp && !wide) {
+			bottomUp = false;
+		}
+		if (bottomUp) {
+			bottomUpLevels++;
+			if (claim != null) {
+				parallelLevels++;
+				expandBottomUpParallel();
+			} else {
+				expandBottomUp();
+			}
+			return;
+		}
+		if (claim != null && levelEnd - levelStart >= 2 * CHUNK) {
+			parallelLevels++;
+			expandTopDownParallel(levelStart, levelEnd);
+			return;
+		}
+		
+		for (int i = levelStart; i < levelEnd; i++) {
+			int v = queue[i];
+			for (int e = G.begin(v); e < G.end(v); e++) {
+				int w = G.target(e);
+				if (!marked[w]) {
+					visit(w, v, depth + 1);
+				}
+			}
+			if (SAPMetrics.ENABLED) {
+				edgesScanned += G.end(v) - G.begin(v);
+			}
+		}
+		depth++;
+		if (SAPMetrics.ENABLED) {
+			frontierPeak = Math.max(frontierPeak, frontierSize());
+		}
+	}
+	
+	
+	/**
+	 * Expands the current level bottom-up: every unreached vertex with a reversed edge to a vertex of the
+	 * frontier is reached from the first such vertex
+	 */
+	private void expandBottomUp() {
+		CompactDigraph R = G.reverse();
+		for (int w = 0; w < R.V(); w++) {
+			if (marked[w]) continue;
+			int e = R.begin(w);
+			for (; e < R.end(w); e++) {
+				int v = R.target(e);
+				if (marked[v] && distTo[v] == depth) {
+					visit(w, v, depth + 1);
+					break;
+				}
+			}
+			if (SAPMetrics.ENABLED) {
+				edgesScanned += Math.min(e + 1, R.end(w)) - R.begin(w);
+			}
+		}
+		depth++;
+		if (SAPMetrics.ENABLED) {
+			frontierPeak = Math.max(frontierPeak, frontierSize());
+		}
+	}
+	
+	
+	/**
+	 * Expands the current level top-down in parallel, reaching the same vertices by the same edges and in the
+	 * same order as the sequential loop in expandLevel()
+	 * @param levelStart queue index of the first frontier vertex
+	 * @param levelEnd queue index one past the last frontier vertex
+	 */
+	private void expandTopDownParallel(final int levelStart, final int levelEnd) {
+		final int n = levelEnd - levelStart;
+		
+		// an unreached vertex is reached sequentially from the first frontier vertex with an edge to it
+		ParallelRange.forEach(n, CHUNK, new ParallelRange.Body() {
+			@Override
+			public void run(int i) {
+				int v = queue[levelStart + i];
+				for (int e = G.begin(v); e < G.end(v); e++) {
+					int w = G.target(e);
+					if (!marked[w]) {
+						claimMin(w, i);
+					}
+				}
+			}
+		});
+		
+		// every vertex is written by the one chunk holding its claim, so marked[w] of other chunks' vertices
+		// only ever changes from false to true under a check that cannot succeed for them
+		int chunks = prepareChunks(n);
+		ParallelRange.forEach(chunks, 1, new ParallelRange.Body() {
+			@Override
+			public void run(int c) {
+				int[] buffer = chunkBuffer[c];
+				int count = 0;
+				long edges = 0;
+				for (int i = c * CHUNK; i < Math.min(n, (c + 1) * CHUNK); i++) {
+					int v = queue[levelStart + i];
+					for (int e = G.begin(v); e < G.end(v); e++) {
+						int w = G.target(e);
+						if (!marked[w] && claim.get(w) == i) {
+							marked[w] = true;
+							edgeTo[w] = v;
+							distTo[w] = depth + 1;
+							if (count == buffer.length) {
+								buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+								chunkBuffer[c] = buffer;
+							}
+							buffer[count++] = w;
+						}
+					}
+					edges += G.end(v) - G.begin(v);
+				}
+				chunkCount[c] = count;
+				chunkEdges[c] = edges;
+			}
+		});
+		appendChunks(chunks);
+	}
+	
+	
+	/**
+	 * Lowers the claim on an unreached vertex to a frontier position if that comes first
+	 * @param w the unreached vertex
+	 * @param i position in the frontier of a vertex with an edge to w
+	 */
+	private void claimMin(int w, int i) {
+		int current = claim.get(w);
+		while (i < current && !claim.compareAndSet(w, current, i)) {
+			current = claim.get(w);
+		}
+	}
+	
+	
+	/**
+	 * Expands the current level bottom-up in parallel, each chunk of vertices in its own task.  A vertex
+	 * reached in this level has distance depth + 1, so tasks that read it while another task marks it see a
+	 * non-frontier vertex either way.
+	 */
+	private void expandBottomUpParallel() {
+		final CompactDigraph R = G.reverse();
+		final int V = R.V();
+		int chunks = prepareChunks(V);
+		ParallelRange.forEach(chunks, 1, new ParallelRange.Body() {
+			@Override
+			public void run(int c) {
+				int[] buffer = chunkBuffer[c];
+				int count = 0;
+				long edges = 0;
+				for (int w = c * CHUNK; w < Math.min(V, (c + 1) * CHUNK); w++) {
+					if (marked[w]) continue;
+					int e = R.begin(w);
+					for (; e < R.end(w); e++) {
+						int v = R.target(e);
+						if (marked[v] && distTo[v] == depth) {
+							marked[w] = true;
+							edgeTo[w] = v;
+							distTo[w] = depth + 1;
+							buffer[count++] = w;
+							break;
+						}
+					}
+					edges += Math.min(e + 1, R.end(w)) - R.begin(w);
+				}
+				chunkCount[c] = count;
+				chunkEdges[c] = edges;
+			}
+		});
+		appendChunks(chunks);
+	}
+	
+	
+	/**
+	 * Makes sure there is a buffer for each chunk of a parallel level.  Buffers start with CHUNK entries, enough
+	 * for a bottom-up chunk; top-down chunks grow theirs when needed.
+	 * @param n number of frontier positions or vertices to split into chunks
+	 * @return the number of chunks
+	 */
+	private int prepareChunks(int n) {
+		int chunks = (n + CHUNK - 1) / CHUNK;
+		if (chunkBuffer.length < chunks) {
+			int old = chunkBuffer.length;
+			chunkBuffer = Arrays.copyOf(chunkBuffer, chunks);
+			chunkCount = new int[chunks];
+			chunkEdges = new long[chunks];
+			for (int c = old; c < chunks; c++) {
+				chunkBuffer[c] = new int[CHUNK];
+			}
+		}
+		return chunks;
+	}
+	
+	
+	/**
+	 * Appends the vertices reached by each chunk to the queue in chunk order, completing a parallel level
+	 * @param chunks number of chunks of the level
+	 */
+	private void appendChunks(int chunks) {
+		for (int c = 0; c < chunks; c++) {
+			System.arraycopy(chunkBuffer[c], 0, queue, frontierEnd, chunkCount[c]);
+			frontierEnd += chunkCount[c];
+			if (SAPMetrics.ENABLED) {
+				edgesScanned += chunkEdges[c];
+			}
+		}
+		depth++;
+		if (SAPMetrics.ENABLED) {
+			frontierPeak = Math.max(frontierPeak, frontierSize());
+		}
+	}
+	
+	
+	/**
+	 * Returns the distance from the sources of every vertex in the current frontier
+	 * @return the depth of the current frontier
+	 */
+	int depth() {
+		return depth;
+	}
+	
+	
+	/**
+	 * Returns the number of vertices in the current frontier
+	 * @return the size of the current frontier, 0 once the search is exhausted
+	 */
+	int frontierSize() {
+		return frontierEnd - frontierStart;
+	}
+	
+	
+	/**
+	 * Returns the i-th vertex in the current frontier
+	 * @param i index into the frontier, {@code 0 <= i < frontierSize()}
+	 * @return the vertex
+	 */
+	int frontierVertex(int i) {
+		return queue[frontierStart + i];
+	}
+	
+	
+	/**
+	 * Returns the number of vertices reached so far, sources included
+	 * @return the number of reached vertices
+	 */
+	int visitedCount() {
+		return frontierEnd;
+	}
+	
+	
+	/**
+	 * Returns the i-th vertex reached, in BFS order
+	 * @param i index, {@code 0 <= i < visitedCount()}
+	 * @return the vertex
+	 */
+	int visitedVertex(int i) {
+		return queue[i];
+	}
+	
+	
+	/**
+	 * Returns the vertex a reached vertex was first reached from, the previous vertex on its path in pathTo()
+	 * @param v a vertex reached by the search
+	 * @return the vertex v was reached from, v itself if it is a source
+	 */
+	int edgeTo(int v) {
+		return edgeTo[v];
+	}
+	
+	
+	/**
+	 * Has the search reached a vertex?  Unlike hasPathTo() the vertex is not validated, for the inner loops of
+	 * callers that only pass vertices of the digraph.
+	 * @param v a vertex of the digraph
+	 * @return {@code true} if v has been reached, {@code false} otherwise
+	 */
+	boolean reached(int v) {
+		return marked[v];
+	}
+	
+	
+	/**
+	 * Returns the distance of a reached vertex from the sources, without validating it as distTo() does
+	 * @param v a vertex reached by the search
+	 * @return the number of edges in a shortest path to v
+	 */
+	int dist(int v) {
+		return distTo[v];
+	}
+	
+	
+	/**
+	 * Returns the number of levels expanded bottom-up since the search started
+	 * @return the number of bottom-up levels
+	 */
+	int bottomUpLevels() {
+		return bottomUpLevels;
+	}
+	
+	
+	/**
+	 * Returns the number of levels expanded in parallel since the search started
+	 * @return the number of parallel levels
+	 */
+	int parallelLevels() {
+		return parallelLevels;
+	}
+	
+	
+	/**
+	 * Returns the number of edges scanned since the search started; only counted when SAPMetrics.ENABLED
+	 * @return the number of edges scanned
+	 */
+	long edgesScanned() {
+		return edgesScanned;
+	}
+	
+	
+	/**
+	 * Returns the size of the largest frontier since the search started; only tracked when SAPMetrics.ENABLED
+	 * @return the largest frontier size
+	 */
+	int frontierPeak() {
+		return frontierPeak;
+	}
+	
+	
+	/**
+	 * Clears the state left by the previous level-by-level search.  Every vertex it reached was appended to
+	 * the queue, so only those entries need resetting rather than all V; a claimed vertex is always reached.
+	 */
+	private void reset() {
+		for (int i = 0; i < frontierEnd; i++) {
+			int v = queue[i];
+			marked[v] = false;
+			distTo[v] = INFINITY;
+			if (claim != null) {
+				claim.lazySet(v, UNCLAIMED);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Marks vertex {@code w} as reached from {@code v} at distance {@code dist} and appends it to the frontier
+	 * being built
+	 * @param w vertex reached
+	 * @param v vertex from which w was reached
+	 * @param dist distance of w from the sources
+	 */
+	private void visit(int w, int v, int dist) {
+		marked[w] = true;
+		edgeTo[w] = v;
+		distTo[w] = dist;
+		queue[frontierEnd++] = w;
+	}
+	
+	
 	/**
      * Is there a directed path from the source {@code s} (or sources) to vertex {@code v}?
      * @param v the vertex
@@ -91,51 +636,11 @@ public class DeluxeBFS {
 	
     
     /**
-     * BFS from single source
-     * @param G digraph over which the search will be performed
-     * @param s source vertex
-     */
-    private void bfs(Digraph G, int s) {
-        Queue<Integer> q = new Queue<Integer>();
-        marked[s] = true;
-        distTo[s] = 0;
-        q.enqueue(s);
-        while (!q.isEmpty()) {
-            int v = q.dequeue();
-            for (int w : G.adj(v)) {
-                if (!marked[w]) {
-                    edgeTo[w] = v;
-                    distTo[w] = distTo[v] + 1;
-                    marked[w] = true;
-                    q.enqueue(w);
-                }
-            }
-        }
-    }
-    
-	
-    /**
-     * BFS from multiple sources
-     * @param G digraph over which the search will be performed
-     * @param sources Iterable collection of source vertices
+     * Runs the started search to completion
      */
-    private void bfs(Digraph G, Iterable<Integer> sources) {
-        Queue<Integer> q = new Queue<Integer>();
-        for (int s : sources) {
-            marked[s] = true;
-            distTo[s] = 0;
-            q.enqueue(s);
-        }
-        while (!q.isEmpty()) {
-            int v = q.dequeue();
-            for (int w : G.adj(v)) {
-                if (!marked[w]) {
-                    edgeTo[w] = v;
-                    distTo[w] = distTo[v] + 1;
-                    marked[w] = true;
-                    q.enqueue(w);
-                }
-            }
+    void bfs() {
+        while (frontierSize() > 0) {
+            expandLevel();
         }
     }
     
@@ -166,4 +671,135 @@ public class DeluxeBFS {
             }
         }
     }
+    
+    
+    /**
+	 * For unit testing of this class: on each course digraph, and on digraph-wordnet from wide random source
+	 * sets, which make the search go bottom-up, checks that direction-optimizing searches reach every vertex at
+	 * the same distance as top-down ones, by an edge from the level above.  Then, with the parallel threshold
+	 * lowered to 0, checks that parallel searches leave the same visiting order, distTo(), edgeTo() and pathTo()
+	 * as sequential ones, on the course digraphs and their reverses and on a DAGGenerator digraph whose
+	 * hyponym levels are wide enough to be split.
+	 * @param args command line args
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(6);
+		Map<String, CompactDigraph> digraphs = CourseDigraphs.acyclic();
+		for (Map.Entry<String, CompactDigraph> course : digraphs.entrySet()) {
+			CompactDigraph G = course.getValue();
+			DeluxeBFS optimizing = new DeluxeBFS(G);
+			DeluxeBFS topDown = new DeluxeBFS(G, false);
+			int searches = Math.min(G.V(), CourseDigraphs.SMALL);
+			int bottomUpLevels = 0, errors = 0;
+			for (int i = 0; i < searches; i++) {
+				// single sources, then sets of half the vertices or more, whose frontiers hold most of the edges
+				List<Integer> sources = new ArrayList<Integer>();
+				int size = i < searches / 2 ? 1 : G.V() / 2 + random.nextInt(G.V() - G.V() / 2);
+				for (int k = 0; k < size; k++) sources.add(random.nextInt(G.V()));
+				optimizing.start(sources);
+				optimizing.bfs();
+				topDown.start(sources);
+				topDown.bfs();
+				bottomUpLevels += optimizing.bottomUpLevels();
+				if (topDown.bottomUpLevels() != 0) errors++;
+				if (!sameDistances(G, optimizing, topDown)) errors++;
+			}
+			// the wide sets must have exercised the bottom-up levels
+			if (bottomUpLevels == 0) errors++;
+			StdOut.printf("%s: %d searches, %d bottom-up levels, %d errors%n", course.getKey(), searches,
+					bottomUpLevels, errors);
+		}
+		
+		digraphs.put("DAGGenerator", DAGGenerator.generate(1 << 18, 8, 8, 0.3, 7));
+		for (Map.Entry<String, CompactDigraph> course : digraphs.entrySet()) {
+			// a vertex with no hypernym; searched from in the reverse digraph, the levels widen down the hyponyms
+			int root = 0;
+			while (root < course.getValue().V() - 1 && course.getValue().end(root) > course.getValue().begin(root))
+				root++;
+			int searches = 0, parallelLevels = 0, errors = 0;
+			for (CompactDigraph G : new CompactDigraph[] {course.getValue(), course.getValue().reverse()}) {
+				DeluxeBFS parallel = new DeluxeBFS(G, true, 0);
+				DeluxeBFS sequential = new DeluxeBFS(G, true, Integer.MAX_VALUE);
+				for (int i = 0; i < 20; i++, searches++) {
+					// the root, then single sources, then sets of half the vertices or more
+					List<Integer> sources = new ArrayList<Integer>();
+					int size = i < 10 ? 1 : G.V() / 2 + random.nextInt(G.V() - G.V() / 2);
+					for (int k = 0; k < size; k++) sources.add(i == 0 ? root : random.nextInt(G.V()));
+					parallel.start(sources);
+					parallel.bfs();
+					sequential.start(sources);
+					sequential.bfs();
+					parallelLevels += parallel.parallelLevels();
+					if (sequential.parallelLevels() != 0) errors++;
+					if (!sameSearch(G, parallel, sequential, random)) errors++;
+				}
+			}
+			// the DAGGenerator digraph must have exercised the parallel levels
+			if (course.getValue().V() > 2 * CHUNK && parallelLevels == 0) errors++;
+			StdOut.printf("%s: %d parallel searches, %d parallel levels, %d errors%n", course.getKey(), searches,
+					parallelLevels, errors);
+		}
+	}
+	
+	
+	/**
+	 * Do two finished searches from the same sources reach the same vertices at the same distances, and does
+	 * the first reach each vertex by an edge from a vertex one level closer to the sources?
+	 * @param G the digraph
+	 * @param bfs the search to check
+	 * @param reference the search to check against
+	 * @return {@code true} if they do, {@code false} otherwise
+	 */
+	private static boolean sameDistances(CompactDigraph G, DeluxeBFS bfs, DeluxeBFS reference) {
+		if (bfs.visitedCount() != reference.visitedCount()) return false;
+		for (int v = 0; v < G.V(); v++) {
+			if (bfs.hasPathTo(v) != reference.hasPathTo(v)) return false;
+			if (!bfs.hasPathTo(v)) continue;
+			if (bfs.distTo(v) != reference.distTo(v)) return false;
+			if (bfs.distTo(v) == 0) continue;
+			int u = bfs.edgeTo(v);
+			boolean edge = false;
+			for (int e = G.begin(u); e < G.end(u); e++) {
+				if (G.target(e) == v) edge = true;
+			}
+			if (!edge || bfs.distTo(u) != bfs.distTo(v) - 1) return false;
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Did two finished searches from the same sources visit the same vertices in the same order, each at the
+	 * same distance and by the same edge, and do they give the same paths to a sample of vertices?
+	 * @param G the digraph
+	 * @param bfs the search to check
+	 * @param reference the search to check against
+	 * @param random source of the sampled vertices
+	 * @return {@code true} if they did, {@code false} otherwise
+	 */
+	private static boolean sameSearch(CompactDigraph G, DeluxeBFS bfs, DeluxeBFS reference, Random random) {
+		if (bfs.visitedCount() != reference.visitedCount()) return false;
+		for (int i = 0; i < bfs.visitedCount(); i++) {
+			if (bfs.visitedVertex(i) != reference.visitedVertex(i)) return false;
+		}
+		for (int v = 0; v < G.V(); v++) {
+			if (bfs.hasPathTo(v) != reference.hasPathTo(v) || bfs.distTo(v) != reference.distTo(v)) return false;
+			if (bfs.hasPathTo(v) && bfs.edgeTo(v) != reference.edgeTo(v)) return false;
+		}
+		for (int i = 0; i < 100; i++) {
+			int v = random.nextInt(G.V());
+			Iterable<Integer> path = bfs.pathTo(v);
+			Iterable<Integer> expected = reference.pathTo(v);
+			if (path == null || expected == null) {
+				if (path != expected) return false;
+				continue;
+			}
+			Iterator<Integer> it = expected.iterator();
+			for (int x : path) {
+				if (!it.hasNext() || it.next() != x) return false;
+			}
+			if (it.hasNext()) return false;
+		}
+		return true;
+	}
 }
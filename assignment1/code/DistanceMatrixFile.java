@@ -0,0 +1,350 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * All-pairs shortest ancestral path distance matrix of a noun vocabulary, stored in a file.
+ *
+ * The matrix is computed in square tiles of TILE x TILE nouns spread over the common pool.  Each tile merges
+ * the ancestor labels of TILE row nouns with those of TILE column nouns, so the labels it touches stay in
+ * cache, and only tiles on or above the diagonal are computed; each is written to its mirror image as well.
+ * Cells are written straight into a memory-mapped file, so the matrix never has to fit on the heap.
+ *
+ * A cell is one byte when every distance is known to fit below the sentinel 0xFF, otherwise two bytes with
+ * sentinel 0xFFFF; the sentinel marks pairs without a common ancestor.  All values are big-endian.
+ * <pre>
+ *     magic, version, number of nouns n, bytes per cell, matrix offset (long)
+ *     noun string offsets [n+1], noun string bytes
+ *     zero padding up to the matrix offset
+ *     n x n cells, row by row
+ * </pre>
+ * Usage: {@code java DistanceMatrixFile synsets.txt hypernyms.txt nouns.txt matrix.wnd}, where nouns.txt
+ * holds whitespace separated nouns, or is {@code -all} for every WordNet noun.
+ * @author ckingsley
+ *
+ */
+public final class DistanceMatrixFile {
+	private static final int MAGIC = 0x574e4431;	// "WND1"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 24;
+	private static final int TILE = 256;			// nouns per tile side, and matrix rows per mapped band
+	private static final int NO_PATH_BYTE = 0xFF;
+	private static final int NO_PATH_SHORT = 0xFFFF;
+	private final String[] nouns;
+	private final int cellBytes;
+	private final MappedByteBuffer[] bands;
+	
+	
+	/**
+	 * Constructor
+	 * @param nouns the nouns, in matrix order
+	 * @param cellBytes bytes per cell, 1 or 2
+	 * @param bands the matrix, TILE rows per mapping
+	 */
+	private DistanceMatrixFile(String[] nouns, int cellBytes, MappedByteBuffer[] bands) {
+		this.nouns = nouns;
+		this.cellBytes = cellBytes;
+		this.bands = bands;
+	}
+	
+	
+	/**
+	 * Computes the distance matrix of the passed nouns and writes it to a file
+	 * @param wordNet the WordNet
+	 * @param nouns the nouns, in matrix order
+	 * @param file path of the matrix file
+	 * @throws IllegalArgumentException if a word is not a WordNet noun or the file cannot be written
+	 */
+	public static void write(WordNet wordNet, String[] nouns, String file) {
+		final AncestorLabel[] labels = wordNet.ancestorLabels(nouns);
+		final int n = nouns.length;
+	
+		// a distance is at most the sum of the two largest label distances
+		int maxDist = 0;
+		for (AncestorLabel label : labels) {
+			for (int i = 0; i < label.size(); i++) {
+				maxDist = Math.max(maxDist, label.dist(i));
+			}
+		}
+		if (2L * maxDist >= NO_PATH_SHORT) {
+			throw new IllegalArgumentException("Distances up to " + 2L * maxDist + " do not fit in two bytes");
+		}
+		final int cellBytes = 2 * maxDist < NO_PATH_BYTE ? 1 : 2;
+	
+		long matrixOffset;
+		try {
+			matrixOffset = writeHeader(nouns, cellBytes, file);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not write distance matrix to " + file, e);
+		}
+	
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				FileChannel channel = raf.getChannel()) {
+			raf.setLength(matrixOffset + (long) n * n * cellBytes);
+			final MappedByteBuffer[] bands = mapBands(channel, FileChannel.MapMode.READ_WRITE, matrixOffset, n,
+					cellBytes);
+	
+			// upper triangle of tiles, row band by row band
+			final int B = (n + TILE - 1) / TILE;
+			final int[] tileRow = new int[B * (B + 1) / 2];
+			final int[] tileCol = new int[tileRow.length];
+			int tiles = 0;
+			for (int bi = 0; bi < B; bi++) {
+				for (int bj = bi; bj < B; bj++) {
+					tileRow[tiles] = bi;
+					tileCol[tiles++] = bj;
+				}
+			}
+	
+			ParallelRange.forEach(tileRow.length, 1, new ParallelRange.Body() {
+				@Override
+				public void run(int t) {
+					int i0 = tileRow[t] * TILE, i1 = Math.min(n, i0 + TILE);
+					int j0 = tileCol[t] * TILE, j1 = Math.min(n, j0 + TILE);
+					for (int i = i0; i < i1; i++) {
+						for (int j = Math.max(j0, i); j < j1; j++) {
+							int cell = labels[i].length(labels[j]);
+							if (cell < 0) {
+								cell = cellBytes == 1 ? NO_PATH_BYTE : NO_PATH_SHORT;
+							}
+							put(bands, cellBytes, n, i, j, cell);
+							put(bands, cellBytes, n, j, i, cell);
+						}
+					}
+				}
+			});
+			for (MappedByteBuffer band : bands) {
+				band.force();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not write distance matrix to " + file, e);
+		}
+	}
+	
+	
+	/**
+	 * Opens a matrix file by memory-mapping it
+	 * @param file path of the matrix file
+	 * @return the matrix
+	 * @throws IllegalArgumentException if the file cannot be read, is not a distance matrix or is corrupt
+	 */
+	public static DistanceMatrixFile open(String file) {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), HEADER_BYTES));
+			if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+				throw new IllegalArgumentException(file + " is not a distance matrix");
+			}
+			if (header.getInt() != VERSION) {
+				throw new IllegalArgumentException(file + " was written by an unsupported matrix version");
+			}
+			int n = header.getInt();
+			int cellBytes = header.getInt();
+			long matrixOffset = header.getLong();
+			if (n < 0) {
+				throw new IllegalArgumentException(file + " is corrupt: " + n + " nouns");
+			}
+			if (cellBytes != 1 && cellBytes != 2) {
+				throw new IllegalArgumentException(file + " is corrupt: " + cellBytes + " bytes per cell");
+			}
+			// the noun offsets must fit between the header and the matrix, and the names in one mapping
+			long tableEnd = HEADER_BYTES + 4L * (n + 1);
+			if (matrixOffset < tableEnd || matrixOffset - HEADER_BYTES > Integer.MAX_VALUE
+					|| matrixOffset > channel.size()) {
+				throw new IllegalArgumentException(file + " is corrupt: matrix offset " + matrixOffset
+						+ " is not between the noun table and the end of the file");
+			}
+			if (channel.size() - matrixOffset != (long) n * n * cellBytes) {
+				throw new IllegalArgumentException(file + " is truncated");
+			}
+	
+			ByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, matrixOffset - HEADER_BYTES);
+			IntBuffer offsets = names.asIntBuffer();
+			int[] nounOffsets = new int[n + 1];
+			offsets.get(nounOffsets);
+			if (nounOffsets[0] != 0) {
+				throw new IllegalArgumentException(file + " is corrupt: noun string offsets start at " + nounOffsets[0]);
+			}
+			for (int i = 0; i < n; i++) {
+				if (nounOffsets[i + 1] < nounOffsets[i]) {
+					throw new IllegalArgumentException(file + " is corrupt: noun string " + i + " ends before it starts");
+				}
+			}
+			if (nounOffsets[n] > matrixOffset - tableEnd) {
+				throw new IllegalArgumentException(file + " is corrupt: noun strings run past the matrix offset");
+			}
+			byte[] nounBytes = new byte[nounOffsets[n]];
+			names.position(4 * (n + 1));
+			names.get(nounBytes);
+			String[] nouns = new String[n];
+			for (int i = 0; i < n; i++) {
+				nouns[i] = new String(nounBytes, nounOffsets[i], nounOffsets[i + 1] - nounOffsets[i],
+						StandardCharsets.UTF_8);
+			}
+	
+			return new DistanceMatrixFile(nouns, cellBytes,
+					mapBands(channel, FileChannel.MapMode.READ_ONLY, matrixOffset, n, cellBytes));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not read distance matrix from " + file, e);
+		}
+	}
+	
+	
+	/**
+	 * Returns the number of nouns
+	 * @return the matrix dimension
+	 */
+	public int size() {
+		return nouns.length;
+	}
+	
+	
+	/**
+	 * Returns the i-th noun of the matrix
+	 * @param i row or column index
+	 * @return the noun
+	 */
+	public String noun(int i) {
+		return nouns[i];
+	}
+	
+	
+	/**
+	 * Returns the distance between the i-th and the j-th noun
+	 * @param i row index
+	 * @param j column index
+	 * @return the shortest ancestral path distance, or -1 if the nouns have no common ancestor
+	 */
+	public int distance(int i, int j) {
+		if (i < 0 || i >= nouns.length || j < 0 || j >= nouns.length) {
+			throw new IllegalArgumentException("index " + i + ", " + j + " is not between 0 and " + (nouns.length - 1));
+		}
+		MappedByteBuffer band = bands[i / TILE];
+		int index = ((i % TILE) * nouns.length + j) * cellBytes;
+		if (cellBytes == 1) {
+			int cell = band.get(index) & 0xFF;
+			return (cell == NO_PATH_BYTE ? -1 : cell);
+		}
+		int cell = band.getShort(index) & 0xFFFF;
+		return (cell == NO_PATH_SHORT ? -1 : cell);
+	}
+	
+	
+	/**
+	 * Writes the magic, version, dimensions and nouns of a matrix file
+	 * @param nouns the nouns
+	 * @param cellBytes bytes per cell
+	 * @param file path of the matrix file
+	 * @return the offset of the matrix in the file
+	 * @throws IOException if the file cannot be written
+	 */
+	private static long writeHeader(String[] nouns, int cellBytes, String file) throws IOException {
+		ByteArrayOutputStream nounBytes = new ByteArrayOutputStream();
+		int[] offsets = new int[nouns.length + 1];
+		for (int i = 0; i < nouns.length; i++) {
+			nounBytes.write(nouns[i].getBytes(StandardCharsets.UTF_8));
+			offsets[i + 1] = nounBytes.size();
+		}
+		long end = HEADER_BYTES + 4L * offsets.length + nounBytes.size();
+		long matrixOffset = (end + 7) & ~7L;
+	
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(nouns.length);
+			out.writeInt(cellBytes);
+			out.writeLong(matrixOffset);
+			for (int offset : offsets) {
+				out.writeInt(offset);
+			}
+			nounBytes.writeTo(out);
+			for (long p = end; p < matrixOffset; p++) {
+				out.writeByte(0);
+			}
+		}
+		return matrixOffset;
+	}
+	
+	
+	/**
+	 * Maps the matrix region of a file in bands of TILE rows, keeping every mapping well below 2 GB
+	 * @param channel the file
+	 * @param mode mapping mode
+	 * @param matrixOffset offset of the matrix in the file
+	 * @param n matrix dimension
+	 * @param cellBytes bytes per cell
+	 * @return the mapped bands
+	 * @throws IOException if the file cannot be mapped
+	 */
+	private static MappedByteBuffer[] mapBands(FileChannel channel, FileChannel.MapMode mode, long matrixOffset,
+			int n, int cellBytes) throws IOException {
+		long rowBytes = (long) n * cellBytes;
+		MappedByteBuffer[] bands = new MappedByteBuffer[(n + TILE - 1) / TILE];
+		for (int b = 0; b < bands.length; b++) {
+			int rows = Math.min(TILE, n - b * TILE);
+			bands[b] = channel.map(mode, matrixOffset + b * TILE * rowBytes, rows * rowBytes);
+		}
+		return bands;
+	}
+	
+	
+	/**
+	 * Stores one cell.  Absolute puts do not move the buffer position, so tiles can write concurrently.
+	 * @param bands the mapped matrix
+	 * @param cellBytes bytes per cell
+	 * @param n matrix dimension
+	 * @param i row index
+	 * @param j column index
+	 * @param cell the value to store
+	 */
+	private static void put(MappedByteBuffer[] bands, int cellBytes, int n, int i, int j, int cell) {
+		MappedByteBuffer band = bands[i / TILE];
+		int index = ((i % TILE) * n + j) * cellBytes;
+		if (cellBytes == 1) {
+			band.put(index, (byte) cell);
+		} else {
+			band.putShort(index, (short) cell);
+		}
+	}
+	
+	
+	/**
+	 * Exports the distance matrix of a noun vocabulary
+	 * @param args synsets file, hypernyms file, nouns file or -all, matrix file
+	 */
+	public static void main(String[] args) {
+		if (args.length != 4) {
+			StdOut.println("Usage: java DistanceMatrixFile synsets.txt hypernyms.txt nouns.txt|-all matrix.wnd");
+			return;
+		}
+		WordNet wordNet = new WordNet(args[0], args[1]);
+		String[] nouns;
+		if (args[2].equals("-all")) {
+			List<String> all = new ArrayList<String>();
+			for (String noun : wordNet.nouns()) {
+				all.add(noun);
+			}
+			nouns = all.toArray(new String[all.size()]);
+		} else {
+			nouns = new In(args[2]).readAllStrings();
+		}
+	
+		long start = System.nanoTime();
+		write(wordNet, nouns, args[3]);
+		long written = System.nanoTime();
+		DistanceMatrixFile matrix = open(args[3]);
+	
+		StdOut.printf("wrote %d x %d matrix (%d byte cells) to %s in %d ms\n", matrix.size(), matrix.size(),
+				matrix.cellBytes, args[3], (written - start) / 1000000);
+	}
+}
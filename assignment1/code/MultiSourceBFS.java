@@ -0,0 +1,408 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Bit-parallel multi-source breadth first search (MS-BFS) answering up to 64 shortest ancestral path queries
+ * in one sweep over a CompactDigraph.  Query i is lane i: bit i of a vertex mask says whether the search of
+ * query i has reached that vertex, so one visit of a vertex advances every lane that reaches it at the same
+ * depth.
+ *
+ * As in SAP, the v and w sides of every query are searched alternately one level at a time.  The depth at which
+ * each lane reached each vertex is stored bit-sliced, in as many bits as the longest path of the digraph
+ * needs, so that when lane i of one side reaches a vertex the other side has reached, the two depths add up
+ * to a candidate length.  A lane stops expanding a side once that side's next depth reaches its best candidate,
+ * and the sweep ends when no lane is left on either side.
+ *
+ * The masks of a vertex live in a slot handed out the first time the sweep touches the vertex, so they are
+ * packed densely in the order the sweep reaches them rather than spread over arrays the size of the digraph.
+ * Only the slots in use are cleared before the next sweep, so a workspace can be reused without paying for
+ * the size of the digraph.  A workspace is not thread safe; SAP keeps one per thread.
+ * @author ckingsley
+ *
+ */
+final class MultiSourceBFS {
+	static final int LANES = 64;
+	private static final int INITIAL_SLOTS = 1024;
+	private final CompactDigraph G;
+	private final Side v, w;
+	private final int[] slotOf;			// slot of each vertex plus one, 0 when untouched
+	private int[] vertexOf;				// vertex of each slot in use
+	private int slots;
+	private long[] next;				// lanes reaching each slot in the level being built
+	private final int[] nextFrontier;
+	private final int[] best = new int[LANES];
+	private final int[] ancestor = new int[LANES];
+	
+	
+	/**
+	 * State of the searches of one side of every lane.  The state of slot s is the block of longs starting at
+	 * {@code s * stride}: the lanes that have reached it, the lanes reaching it in the current level, and the
+	 * bit-sliced depths, bit b of the depth of lane i being bit i of the (2 + b)-th long.
+	 * @author ckingsley
+	 *
+	 */
+	private static final class Side {
+		long[] cells;
+		final int stride;
+		final int[] frontier;		// vertices of the current level
+		int size;
+		int depth;
+		long active;				// lanes still expanding this side
+	
+		/**
+		 * Constructor
+		 * @param V number of vertices
+		 * @param depthBits number of bits holding the greatest possible depth
+		 */
+		Side(int V, int depthBits) {
+			stride = 2 + depthBits;
+			cells = new long[INITIAL_SLOTS * stride];
+			frontier = new int[V];
+		}
+	
+		/**
+		 * Returns the lanes that have reached a slot
+		 * @param s the slot
+		 * @return the lanes
+		 */
+		long seen(int s) {
+			return cells[s * stride];
+		}
+	
+		/**
+		 * Returns the lanes reaching a slot in the current level
+		 * @param s the slot
+		 * @return the lanes
+		 */
+		long visit(int s) {
+			return cells[s * stride + 1];
+		}
+	
+		/**
+		 * Returns the depth at which a lane reached a slot
+		 * @param s the slot
+		 * @param lane the lane
+		 * @return the depth
+		 */
+		int depthOf(int s, int lane) {
+			int d = 0;
+			for (int b = 0, i = s * stride + 2; b < stride - 2; b++, i++) {
+				d |= (int) ((cells[i] >>> lane) & 1) << b;
+			}
+			return d;
+		}
+	
+		/**
+		 * Records that lanes reached a slot at the current depth, making them its visiting lanes
+		 * @param s the slot
+		 * @param lanes the lanes
+		 */
+		void record(int s, long lanes) {
+			int i = s * stride;
+			cells[i] |= lanes;
+			cells[i + 1] = lanes;
+			for (int b = 0; (depth >>> b) != 0; b++) {
+				if (((depth >>> b) & 1) != 0) {
+					cells[i + 2 + b] |= lanes;
+				}
+			}
+		}
+	
+		/**
+		 * Clears the visiting lanes of a slot
+		 * @param s the slot
+		 */
+		void leave(int s) {
+			cells[s * stride + 1] = 0;
+		}
+	
+		/**
+		 * Is any lane of this side left to expand?
+		 * @return {@code true} if the side has a level to expand, {@code false} otherwise
+		 */
+		boolean running() {
+			return size > 0 && active != 0;
+		}
+	}
+	
+	
+	/**
+	 * Constructor
+	 * @param G the digraph
+	 */
+	MultiSourceBFS(CompactDigraph G) {
+		this.G = G;
+		int V = G.V();
+		int depthBits = 32 - Integer.numberOfLeadingZeros(height(G));
+		v = new Side(V, depthBits);
+		w = new Side(V, depthBits);
+		slotOf = new int[V];
+		vertexOf = new int[INITIAL_SLOTS];
+		next = new long[INITIAL_SLOTS];
+		nextFrontier = new int[V];
+	}
+	
+	
+	/**
+	 * Runs one group of queries, query first + i being lane i.  The sources of the v side of query q are
+	 * {@code vSources[vOffsets[q]] .. vSources[vOffsets[q+1] - 1]}, and likewise for the w side.
+	 * @param vSources source vertices of the v sides
+	 * @param vOffsets offsets of the v sides
+	 * @param wSources source vertices of the w sides
+	 * @param wOffsets offsets of the w sides
+	 * @param first index of the first query of the group
+	 * @param count number of queries in the group, at most LANES
+	 * @param results receives the result of query q at results[q]
+	 */
+	void query(int[] vSources, int[] vOffsets, int[] wSources, int[] wOffsets, int first, int count,
+			SAPResult[] results) {
+		Arrays.fill(best, Integer.MAX_VALUE);
+		Arrays.fill(ancestor, -1);
+		long lanes = count == LANES ? -1L : (1L << count) - 1;
+	
+		start(v, w, vSources, vOffsets, first, count, lanes);
+		start(w, v, wSources, wOffsets, first, count, lanes);
+		prune(v);
+		prune(w);
+	
+		// expand the smaller frontier first, like SAP.search
+		while (v.running() || w.running()) {
+			Side side = !w.running() || (v.running() && v.size <= w.size) ? v : w;
+			expand(side, side == v ? w : v);
+			prune(v);
+			prune(w);
+		}
+	
+		for (int lane = 0; lane < count; lane++) {
+			results[first + lane] = ancestor[lane] == -1 ? new SAPResult(-1, -1) : new SAPResult(best[lane], ancestor[lane]);
+		}
+		reset();
+	}
+	
+	
+	/**
+	 * Makes the sources the first level of a side, and checks them against the other side
+	 * @param side the side to start
+	 * @param other the other side
+	 * @param sources source vertices
+	 * @param offsets offsets of the sources of each query
+	 * @param first index of the query of lane 0
+	 * @param count number of lanes
+	 * @param active lanes in use
+	 */
+	private void start(Side side, Side other, int[] sources, int[] offsets, int first, int count, long active) {
+		side.size = 0;
+		side.depth = 0;
+		side.active = active;
+		for (int lane = 0; lane < count; lane++) {
+			for (int k = offsets[first + lane]; k < offsets[first + lane + 1]; k++) {
+				int x = sources[k];
+				int s = slot(x);
+				if (side.visit(s) == 0) {
+					side.frontier[side.size++] = x;
+				}
+				side.record(s, side.visit(s) | (1L << lane));
+			}
+		}
+		for (int i = 0; i < side.size; i++) {
+			meet(side, other, side.frontier[i]);
+		}
+	}
+	
+	
+	/**
+	 * Advances the active lanes of a side by one level, checking every newly reached vertex against the other
+	 * side
+	 * @param side the side to expand
+	 * @param other the other side
+	 */
+	private void expand(Side side, Side other) {
+		int nextSize = 0;
+		for (int i = 0; i < side.size; i++) {
+			int x = side.frontier[i];
+			int s = slotOf[x] - 1;
+			long lanes = side.visit(s) & side.active;
+			side.leave(s);
+			if (lanes == 0) continue;
+			for (int e = G.begin(x); e < G.end(x); e++) {
+				int y = G.target(e);
+				int t = slotOf[y] - 1;
+				long reached = t < 0 ? lanes : lanes & ~side.seen(t);
+				if (reached != 0) {
+					if (t < 0) {
+						t = slot(y);
+					}
+					if (next[t] == 0) {
+						nextFrontier[nextSize++] = y;
+					}
+					next[t] |= reached;
+				}
+			}
+		}
+	
+		side.depth++;
+		for (int i = 0; i < nextSize; i++) {
+			int y = nextFrontier[i];
+			int t = slotOf[y] - 1;
+			side.frontier[i] = y;
+			side.record(t, next[t]);
+			next[t] = 0;
+			meet(side, other, y);
+		}
+		side.size = nextSize;
+	}
+	
+	
+	/**
+	 * Updates the best lengths of the lanes of a side that have just reached a vertex the other side has
+	 * reached as well
+	 * @param side the side that reached x
+	 * @param other the other side
+	 * @param x the vertex
+	 */
+	private void meet(Side side, Side other, int x) {
+		int s = slotOf[x] - 1;
+		for (long lanes = side.visit(s) & other.seen(s); lanes != 0; lanes &= lanes - 1) {
+			int lane = Long.numberOfTrailingZeros(lanes);
+			int length = side.depth + other.depthOf(s, lane);
+			if (length < best[lane]) {
+				best[lane] = length;
+				ancestor[lane] = x;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Stops the lanes of a side whose next level could not improve on their best length
+	 * @param side the side
+	 */
+	private void prune(Side side) {
+		for (long lanes = side.active; lanes != 0; lanes &= lanes - 1) {
+			int lane = Long.numberOfTrailingZeros(lanes);
+			if (best[lane] <= side.depth + 1) {
+				side.active &= ~(1L << lane);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Returns the slot of a vertex, handing out the next free slot the first time the vertex is touched
+	 * @param x the vertex
+	 * @return the slot
+	 */
+	private int slot(int x) {
+		if (slotOf[x] == 0) {
+			if (slots == vertexOf.length) {
+				int capacity = 2 * slots;
+				vertexOf = Arrays.copyOf(vertexOf, capacity);
+				next = Arrays.copyOf(next, capacity);
+				v.cells = Arrays.copyOf(v.cells, capacity * v.stride);
+				w.cells = Arrays.copyOf(w.cells, capacity * w.stride);
+			}
+			vertexOf[slots] = x;
+			slotOf[x] = ++slots;
+		}
+		return slotOf[x] - 1;
+	}
+	
+	
+	/**
+	 * Clears the slots in use
+	 */
+	private void reset() {
+		for (int s = 0; s < slots; s++) {
+			slotOf[vertexOf[s]] = 0;
+		}
+		Arrays.fill(v.cells, 0, slots * v.stride, 0);
+		Arrays.fill(w.cells, 0, slots * w.stride, 0);
+		slots = 0;
+	}
+	
+	
+	/**
+	 * Returns the number of edges on the longest path of a DAG, which bounds the depth of any search
+	 * @param G the digraph
+	 * @return the length of the longest path
+	 */
+	private static int height(CompactDigraph G) {
+		int V = G.V();
+		int[] indegree = new int[V];
+		for (int x = 0; x < V; x++) {
+			for (int e = G.begin(x); e < G.end(x); e++) {
+				indegree[G.target(e)]++;
+			}
+		}
+		int[] queue = new int[V];
+		int head = 0, tail = 0;
+		for (int x = 0; x < V; x++) {
+			if (indegree[x] == 0) queue[tail++] = x;
+		}
+	
+		// longest path ending at each vertex, in topological order
+		int[] longest = new int[V];
+		int height = 0;
+		while (head < tail) {
+			int x = queue[head++];
+			height = Math.max(height, longest[x]);
+			for (int e = G.begin(x); e < G.end(x); e++) {
+				int y = G.target(e);
+				longest[y] = Math.max(longest[y], longest[x] + 1);
+				if (--indegree[y] == 0) queue[tail++] = y;
+			}
+		}
+		return height;
+	}
+	
+	
+	/**
+	 * For unit testing of this class: on each course digraph, runs groups of up to LANES random queries through
+	 * one workspace and checks every lane against SAP.query
+	 * @param args command line args
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(4);
+		for (Map.Entry<String, CompactDigraph> course : CourseDigraphs.acyclic().entrySet()) {
+			CompactDigraph G = course.getValue();
+			SAP sap = new SAP(G);
+			MultiSourceBFS msbfs = new MultiSourceBFS(G);
+			DeluxeBFS fromV = new DeluxeBFS(G);
+			DeluxeBFS fromW = new DeluxeBFS(G);
+	
+			// sets of one to three vertices; the last group is only partly filled
+			int n = 20 * LANES + 17;
+			int[] vOffsets = new int[n + 1];
+			int[] wOffsets = new int[n + 1];
+			int[] vSources = new int[3 * n];
+			int[] wSources = new int[3 * n];
+			for (int q = 0; q < n; q++) {
+				vOffsets[q + 1] = vOffsets[q] + 1 + random.nextInt(3);
+				wOffsets[q + 1] = wOffsets[q] + 1 + random.nextInt(3);
+				for (int k = vOffsets[q]; k < vOffsets[q + 1]; k++) vSources[k] = random.nextInt(G.V());
+				for (int k = wOffsets[q]; k < wOffsets[q + 1]; k++) wSources[k] = random.nextInt(G.V());
+			}
+			SAPResult[] results = new SAPResult[n];
+			for (int first = 0; first < n; first += LANES) {
+				msbfs.query(vSources, vOffsets, wSources, wOffsets, first, Math.min(LANES, n - first), results);
+			}
+	
+			int errors = 0;
+			for (int q = 0; q < n; q++) {
+				List<Integer> v = new ArrayList<Integer>();
+				List<Integer> w = new ArrayList<Integer>();
+				for (int k = vOffsets[q]; k < vOffsets[q + 1]; k++) v.add(vSources[k]);
+				for (int k = wOffsets[q]; k < wOffsets[q + 1]; k++) w.add(wSources[k]);
+				fromV.start(v);
+				fromV.bfs();
+				fromW.start(w);
+				fromW.bfs();
+				if (!CourseDigraphs.agrees(results[q], sap.query(v, w), fromV, fromW)) errors++;
+			}
+			StdOut.printf("%s: %d queries in %d groups, %d errors%n", course.getKey(), n, (n + LANES - 1) / LANES, errors);
+		}
+	}
+}
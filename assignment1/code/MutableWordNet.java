@@ -0,0 +1,509 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * WordNet that can grow at runtime: synsets, nouns and hypernym edges can be added without re-reading the
+ * synset and hypernym files or rebuilding the digraph.
+ *
+ * Adjacency lists are kept in growable per-vertex arrays, in both directions.  A new hypernym edge v -> w is
+ * checked for cycles on its own, by searching upward from w for v, instead of re-checking the whole digraph.
+ * Queries merge cached ancestor labels (see AncestorLabel) of the synsets involved; a label is computed on
+ * first use, and a new edge v -> w invalidates only the labels of v and its descendants, the only vertices
+ * whose ancestors can have changed.  Adding a synset or a noun invalidates nothing.
+ *
+ * toWordNet() freezes the current state into an immutable WordNet.
+ * This class is not thread safe.
+ * @author ckingsley
+ *
+ */
+public class MutableWordNet {
+	private final Map<String, int[]> nouns;		// noun -> ids of the synsets containing it
+	private String[] synsets;					// synset by id
+	private int[][] hypernyms;					// adjacency lists, hypernyms[v][0 .. outdegree[v]-1]
+	private int[] outdegree;
+	private int[][] hyponyms;					// reverse adjacency lists
+	private int[] indegree;
+	private int V;
+	private int E;
+	private AncestorLabel[] labels;				// cached by synset id, null when not computed or invalidated
+	
+	// search scratch, valid where mark[v] == stamp
+	private int[] mark;
+	private int[] dist;
+	private int[] queue;
+	private int stamp;
+	
+	
+	/**
+	 * Constructor, copies a WordNet
+	 * @param wordNet the WordNet to start from
+	 */
+	public MutableWordNet(WordNet wordNet) {
+		String[] table = wordNet.synsetTable();
+		CompactDigraph G = wordNet.hypernyms();
+		NounDictionary dictionary = wordNet.nounDictionary();
+		int[] ext = wordNet.externalIds();		// ids here are those of synsets.txt, even if wordNet relabeled them
+	
+		V = G.V();
+		int capacity = Math.max(V, 1);
+		synsets = new String[capacity];
+		hypernyms = new int[capacity][];
+		outdegree = new int[capacity];
+		hyponyms = new int[capacity][];
+		indegree = new int[capacity];
+		labels = new AncestorLabel[capacity];
+		mark = new int[capacity];
+		dist = new int[capacity];
+		queue = new int[capacity];
+	
+		for (int i = 0; i < V; i++) {
+			int v = ext == null ? i : ext[i];
+			synsets[v] = table[i];
+			hypernyms[v] = new int[Math.max(G.end(i) - G.begin(i), 1)];
+			for (int e = G.begin(i); e < G.end(i); e++) {
+				int w = ext == null ? G.target(e) : ext[G.target(e)];
+				hypernyms[v][outdegree[v]++] = w;
+				indegree[w]++;
+			}
+		}
+		for (int v = 0; v < V; v++) {
+			hyponyms[v] = new int[Math.max(indegree[v], 1)];
+			indegree[v] = 0;
+		}
+		for (int v = 0; v < V; v++) {
+			for (int e = 0; e < outdegree[v]; e++) {
+				int w = hypernyms[v][e];
+				hyponyms[w][indegree[w]++] = v;
+			}
+		}
+		E = G.E();
+	
+		nouns = new HashMap<String, int[]>(2 * dictionary.size());
+		for (int i = 0; i < dictionary.size(); i++) {
+			int[] ids = new int[dictionary.postingEnd(i) - dictionary.postingStart(i)];
+			for (int p = dictionary.postingStart(i); p < dictionary.postingEnd(i); p++) {
+				int id = dictionary.posting(p);
+				ids[p - dictionary.postingStart(i)] = ext == null ? id : ext[id];
+			}
+			nouns.put(dictionary.noun(i), ids);
+		}
+	}
+	
+	
+	/**
+	 * Constructor
+	 * @param synsetFile path to synsets file
+	 * @param hypernymFile path to hypernyms file
+	 */
+	public MutableWordNet(String synsetFile, String hypernymFile) {
+		this(new WordNet(synsetFile, hypernymFile));
+	}
+	
+	
+	/**
+	 * Returns the number of synsets
+	 * @return the number of synsets
+	 */
+	public int synsetCount() {
+		return V;
+	}
+	
+	
+	/**
+	 * Returns the number of hypernym edges
+	 * @return the number of edges
+	 */
+	public int hypernymCount() {
+		return E;
+	}
+	
+	
+	/**
+	 * Returns all WordNet nouns
+	 * @return Iterable collection of all nouns in all synsets in the WordNet, in no particular order
+	 */
+	public Iterable<String> nouns() {
+		return Collections.unmodifiableSet(nouns.keySet());
+	}
+	
+	
+	/**
+	 * Is the word a WordNet noun?
+	 * @param word word to search for in any of the synsets in the WordNet
+	 * @return boolean indicating whether word was present in the WordNet
+	 */
+	public boolean isNoun(String word) {
+		return word != null && nouns.containsKey(word);
+	}
+	
+	
+	/**
+	 * Adds a synset with no hypernyms yet
+	 * @param synset the synonyms of the synset, separated by spaces
+	 * @return the id of the new synset
+	 */
+	public int addSynset(String synset) {
+		if (synset == null || synset.trim().isEmpty()) {
+			throw new IllegalArgumentException("synset is empty");
+		}
+	
+		if (V == synsets.length) {
+			grow(2 * V);
+		}
+		int id = V++;
+		synsets[id] = "";
+		hypernyms[id] = new int[1];
+		hyponyms[id] = new int[1];
+		for (String noun : synset.trim().split(" +")) {
+			addNoun(noun, id);
+		}
+		return id;
+	}
+	
+	
+	/**
+	 * Adds a noun to an existing synset; adding a noun the synset already contains does nothing
+	 * @param noun the noun
+	 * @param synset id of the synset
+	 */
+	public void addNoun(String noun, int synset) {
+		validateSynset(synset);
+		if (noun == null || noun.isEmpty() || noun.indexOf(' ') >= 0) {
+			throw new IllegalArgumentException("\'" + noun + "\' is not a valid noun");
+		}
+	
+		int[] ids = nouns.get(noun);
+		if (ids == null) {
+			nouns.put(noun, new int[] { synset });
+		} else {
+			for (int id : ids) {
+				if (id == synset) return;
+			}
+			ids = Arrays.copyOf(ids, ids.length + 1);
+			ids[ids.length - 1] = synset;
+			nouns.put(noun, ids);
+		}
+		synsets[synset] = (synsets[synset] == null || synsets[synset].isEmpty()) ? noun : synsets[synset] + " " + noun;
+	}
+	
+	
+	/**
+	 * Adds a hypernym edge from synset v to synset w.  Only the new edge is checked for cycles: it closes one
+	 * exactly when v is already an ancestor of w.
+	 * @param v id of the hyponym synset
+	 * @param w id of the hypernym synset
+	 * @throws IllegalArgumentException if the edge would create a directed cycle
+	 */
+	public void addHypernym(int v, int w) {
+		validateSynset(v);
+		validateSynset(w);
+		if (v == w || search(w, v) >= 0) {
+			throw new IllegalArgumentException("Hypernym " + v + " -> " + w + " would create a cycle");
+		}
+	
+		if (outdegree[v] == hypernyms[v].length) {
+			hypernyms[v] = Arrays.copyOf(hypernyms[v], 2 * outdegree[v]);
+		}
+		hypernyms[v][outdegree[v]++] = w;
+		if (indegree[w] == hyponyms[w].length) {
+			hyponyms[w] = Arrays.copyOf(hyponyms[w], 2 * indegree[w]);
+		}
+		hyponyms[w][indegree[w]++] = v;
+		E++;
+	
+		invalidateDescendants(v);
+	}
+	
+	
+	/**
+	 * Returns the shortest ancestral path between nounA and nounB, provided they are present in the WordNet
+	 * @param nounA First noun used to estimate shortest ancestral path
+	 * @param nounB Second noun used to estimate shortest ancestral path
+	 * @return Shortest ancestral path distance between two passed nouns
+	 */
+	public int distance(String nounA, String nounB) {
+		return query(nounA, nounB).length();
+	}
+	
+	
+	/**
+	 * Returns a synset (second field of synsets.txt) that is the common ancestor of nounA and nounB
+	 * in a shortest ancestral path
+	 * @param nounA First noun used to find shortest ancestral path
+	 * @param nounB Second noun used to find shortest ancestral path
+	 * @return synset that is common ancestor of nounA and nounB
+	 */
+	public String sap(String nounA, String nounB) {
+		SAPResult result = query(nounA, nounB);
+		return result.hasPath() ? result.synset() : "No ancestor Found";
+	}
+	
+	
+	/**
+	 * Returns the shortest ancestral path length between nounA and nounB together with the common ancestor
+	 * and its synset
+	 * @param nounA First noun used to find shortest ancestral path
+	 * @param nounB Second noun used to find shortest ancestral path
+	 * @return length, ancestor synset id and ancestor synset; the synset is null if there is no path
+	 */
+	public SAPResult query(String nounA, String nounB) {
+		int[] synsetA = synsetsOf(nounA);
+		int[] synsetB = synsetsOf(nounB);
+	
+		SAPResult best = new SAPResult(-1, -1);
+		for (int a : synsetA) {
+			for (int b : synsetB) {
+				SAPResult result = label(a).query(label(b));
+				if (result.hasPath() && (!best.hasPath() || result.length() < best.length())) {
+					best = result;
+				}
+			}
+		}
+		if (!best.hasPath()) {
+			return best;
+		}
+		return new SAPResult(best.length(), best.ancestor(), synsets[best.ancestor()]);
+	}
+	
+	
+	/**
+	 * Returns an immutable WordNet with the current synsets, nouns and hypernyms
+	 * @return the WordNet
+	 */
+	public WordNet toWordNet() {
+		int postings = 0;
+		for (int[] ids : nouns.values()) {
+			postings += ids.length;
+		}
+		String[] postingNouns = new String[postings];
+		int[] postingSynsets = new int[postings];
+		int p = 0;
+		for (Map.Entry<String, int[]> entry : nouns.entrySet()) {
+			for (int id : entry.getValue()) {
+				postingNouns[p] = entry.getKey();
+				postingSynsets[p++] = id;
+			}
+		}
+	
+		int[] offsets = new int[V + 1];
+		int[] targets = new int[E];
+		for (int v = 0; v < V; v++) {
+			offsets[v + 1] = offsets[v] + outdegree[v];
+			System.arraycopy(hypernyms[v], 0, targets, offsets[v], outdegree[v]);
+		}
+		return new WordNet(new NounDictionary(postingNouns, postingSynsets), Arrays.copyOf(synsets, V),
+				new CompactDigraph(offsets, targets));
+	}
+	
+	
+	/**
+	 * Returns the cached ancestor label of a synset, computing it if needed
+	 * @param v synset id
+	 * @return distances from v to each of its ancestors
+	 */
+	private AncestorLabel label(int v) {
+		if (labels[v] == null) {
+			int n = search(v, -1);
+			long[] keys = new long[n];
+			for (int i = 0; i < n; i++) {
+				keys[i] = ((long) queue[i] << 32) | dist[queue[i]];
+			}
+			Arrays.sort(keys);
+	
+			int[] ancestors = new int[n];
+			int[] dists = new int[n];
+			for (int i = 0; i < n; i++) {
+				ancestors[i] = (int) (keys[i] >>> 32);
+				dists[i] = (int) keys[i];
+			}
+			labels[v] = new AncestorLabel(ancestors, dists);
+		}
+		return labels[v];
+	}
+	
+	
+	/**
+	 * Breadth first search up the hypernym edges from s, leaving the reached vertices in queue and their
+	 * distances in dist
+	 * @param s the source synset
+	 * @param target synset to stop at, or -1 to search all ancestors
+	 * @return the distance to target if it was reached, otherwise the number of vertices reached
+	 */
+	private int search(int s, int target) {
+		clearMarks();
+		mark[s] = stamp;
+		dist[s] = 0;
+		queue[0] = s;
+		int head = 0, tail = 1;
+		while (head < tail) {
+			int v = queue[head++];
+			if (v == target) {
+				return dist[v];
+			}
+			for (int e = 0; e < outdegree[v]; e++) {
+				int w = hypernyms[v][e];
+				if (mark[w] != stamp) {
+					mark[w] = stamp;
+					dist[w] = dist[v] + 1;
+					queue[tail++] = w;
+				}
+			}
+		}
+		return (target >= 0 ? -1 : tail);
+	}
+	
+	
+	/**
+	 * Drops the cached labels of v and of every synset below it
+	 * @param v synset id
+	 */
+	private void invalidateDescendants(int v) {
+		clearMarks();
+		mark[v] = stamp;
+		queue[0] = v;
+		int head = 0, tail = 1;
+		while (head < tail) {
+			int x = queue[head++];
+			labels[x] = null;
+			for (int e = 0; e < indegree[x]; e++) {
+				int y = hyponyms[x][e];
+				if (mark[y] != stamp) {
+					mark[y] = stamp;
+					queue[tail++] = y;
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Starts a new search, unmarking every synset.  Untouched entries of mark are 0, so the stamp must never
+	 * come back to 0: when it would overflow, mark is cleared and the stamps start over.
+	 */
+	private void clearMarks() {
+		if (stamp == Integer.MAX_VALUE) {
+			Arrays.fill(mark, 0);
+			stamp = 0;
+		}
+		stamp++;
+	}
+	
+	
+	/**
+	 * Resizes the per-synset arrays
+	 * @param capacity new capacity
+	 */
+	private void grow(int capacity) {
+		synsets = Arrays.copyOf(synsets, capacity);
+		hypernyms = Arrays.copyOf(hypernyms, capacity);
+		outdegree = Arrays.copyOf(outdegree, capacity);
+		hyponyms = Arrays.copyOf(hyponyms, capacity);
+		indegree = Arrays.copyOf(indegree, capacity);
+		labels = Arrays.copyOf(labels, capacity);
+		mark = Arrays.copyOf(mark, capacity);
+		dist = Arrays.copyOf(dist, capacity);
+		queue = Arrays.copyOf(queue, capacity);
+	}
+	
+	
+	/**
+	 * Returns the synset ids of the passed noun, checking that it is present in the synset
+	 * @param noun noun to look up
+	 * @return the ids of the synsets containing the noun
+	 */
+	private int[] synsetsOf(String noun) {
+		int[] ids = (noun == null ? null : nouns.get(noun));
+		if (ids == null) {
+			throw new IllegalArgumentException("\'" + noun + "\' is not a valid noun in the synset");
+		}
+		return ids;
+	}
+	
+	
+	/**
+	 * Throws an IllegalArgumentException unless {@code 0 <= v < V}
+	 * @param v synset id to check
+	 */
+	private void validateSynset(int v) {
+		if (v < 0 || v >= V)
+			throw new IllegalArgumentException("synset " + v + " is not between 0 and " + (V-1));
+	}
+	
+	
+	/**
+	 * For unit testing of this class: turns each course digraph into a WordNet with one noun per synset, then
+	 * alternately grows it with new synsets and random hypernym edges and checks distances between random nouns,
+	 * and which edges are refused as cycles, against SAP on a Digraph that receives the same edges
+	 * @param args command line args
+	 */
+	public static void main(String[] args) {
+		int rounds = 5, synsetsPerRound = 3, edgesPerRound = 50, pairsPerRound = 200;
+		Random random = new Random(5);
+		for (Map.Entry<String, CompactDigraph> course : CourseDigraphs.acyclic().entrySet()) {
+			CompactDigraph G = course.getValue();
+			String[] synsets = new String[G.V()];
+			int[] ids = new int[G.V()];
+			for (int v = 0; v < G.V(); v++) {
+				synsets[v] = "s" + v;
+				ids[v] = v;
+			}
+			MutableWordNet wordNet = new MutableWordNet(new WordNet(new NounDictionary(synsets, ids), synsets, G));
+	
+			// the reference has room for the synsets added later, which are isolated until they get edges
+			Digraph reference = new Digraph(G.V() + rounds * synsetsPerRound);
+			for (int v = 0; v < G.V(); v++) {
+				for (int e = G.begin(v); e < G.end(v); e++) {
+					reference.addEdge(v, G.target(e));
+				}
+			}
+	
+			// the tail of each new edge and one of its hyponyms, whose cached labels the edge must invalidate
+			CompactDigraph hyponyms = G.reverse();
+			List<Integer> watched = new ArrayList<Integer>();
+			int errors = 0, added = 0, refused = 0;
+			for (int round = 0; round <= rounds; round++) {
+				watched.clear();
+				if (round > 0) {
+					for (int i = 0; i < synsetsPerRound; i++) {
+						int expected = wordNet.synsetCount();
+						if (wordNet.addSynset("s" + expected) != expected) errors++;
+					}
+					for (int i = 0; i < edgesPerRound; i++) {
+						int v = random.nextInt(wordNet.synsetCount());
+						int w = random.nextInt(wordNet.synsetCount());
+						boolean cycle = v == w || new DeluxeBFS(reference, w).hasPathTo(v);
+						int u = v < G.V() && hyponyms.outdegree(v) > 0 ? hyponyms.target(hyponyms.begin(v)) : v;
+						wordNet.distance("s" + u, "s" + w);
+						try {
+							wordNet.addHypernym(v, w);
+							reference.addEdge(v, w);
+							watched.add(v);
+							watched.add(u);
+							added++;
+							if (cycle) errors++;
+						} catch (IllegalArgumentException e) {
+							refused++;
+							if (!cycle) errors++;
+						}
+					}
+				}
+	
+				SAP sap = new SAP(reference);
+				for (int i = 0; i < pairsPerRound + watched.size(); i++) {
+					int v = i < watched.size() ? watched.get(i) : random.nextInt(wordNet.synsetCount());
+					int w = random.nextInt(wordNet.synsetCount());
+					if (wordNet.distance("s" + v, "s" + w) != sap.length(v, w)) errors++;
+				}
+			}
+			WordNet frozen = wordNet.toWordNet();
+			String last = "s" + (wordNet.synsetCount() - 1);
+			if (frozen.distance("s0", last) != wordNet.distance("s0", last)) errors++;
+			StdOut.printf("%s: %d edges added, %d refused as cycles, %d errors%n", course.getKey(), added, refused, errors);
+		}
+	}
+}
@@ -0,0 +1,272 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact noun -> synset ids dictionary.
+ * Nouns are kept in one sorted String array and the synset ids of noun i are
+ * {@code postings[offsets[i]] .. postings[offsets[i+1] - 1]}, so there is no per-noun node, queue or boxed
+ * id.  Lookups go through an open-addressing hash table of noun indices, costing one hash and usually one
+ * string comparison instead of O(log n) comparisons.
+ * This class is immutable - properties cannot be modified after instantiation.
+ * @author ckingsley
+ *
+ */
+public final class NounDictionary {
+	private final String[] nouns;	// sorted
+	private final int[] offsets;
+	private final int[] postings;
+	private final int[] table;		// noun index + 1 per slot, 0 for an empty slot
+	private final int mask;
+	
+	
+	/**
+	 * Constructor, builds the dictionary from (noun, synset id) postings.  The ids of each noun keep the order
+	 * in which its postings appear.
+	 * @param postingNouns noun of each posting
+	 * @param postingSynsets synset id of each posting
+	 */
+	public NounDictionary(String[] postingNouns, int[] postingSynsets) {
+		if (postingNouns.length != postingSynsets.length) {
+			throw new IllegalArgumentException("posting arrays have different lengths");
+		}
+	
+		// distinct nouns in sorted order
+		String[] sorted = postingNouns.clone();
+		Arrays.parallelSort(sorted);
+		int N = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (N == 0 || !sorted[i].equals(sorted[N - 1])) {
+				sorted[N++] = sorted[i];
+			}
+		}
+		nouns = Arrays.copyOf(sorted, N);
+	
+		int capacity = tableCapacity(N);
+		table = new int[capacity];
+		mask = capacity - 1;
+		buildTable();
+	
+		// counting sort of the postings by noun
+		int[] nounOf = new int[postingNouns.length];
+		offsets = new int[N + 1];
+		for (int i = 0; i < postingNouns.length; i++) {
+			nounOf[i] = indexOf(postingNouns[i]);
+			offsets[nounOf[i] + 1]++;
+		}
+		for (int i = 0; i < N; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		postings = new int[postingNouns.length];
+		int[] next = new int[N];
+		for (int i = 0; i < postingNouns.length; i++) {
+			postings[offsets[nounOf[i]] + next[nounOf[i]]++] = postingSynsets[i];
+		}
+	}
+	
+	
+	/**
+	 * Constructor for a dictionary whose arrays have already been built, e.g. by WordNetSnapshot
+	 * @param nouns distinct nouns in sorted order
+	 * @param offsets posting offsets, of length nouns.length + 1
+	 * @param postings synset ids
+	 */
+	NounDictionary(String[] nouns, int[] offsets, int[] postings) {
+		this.nouns = nouns;
+		this.offsets = offsets;
+		this.postings = postings;
+		int capacity = tableCapacity(nouns.length);
+		table = new int[capacity];
+		mask = capacity - 1;
+		buildTable();
+	}
+	
+	
+	/**
+	 * Returns the number of distinct nouns
+	 * @return the number of nouns
+	 */
+	public int size() {
+		return nouns.length;
+	}
+	
+	
+	/**
+	 * Returns the total number of (noun, synset id) postings
+	 * @return the number of postings
+	 */
+	public int postings() {
+		return postings.length;
+	}
+	
+	
+	/**
+	 * Returns all nouns in sorted order
+	 * @return unmodifiable list of the nouns
+	 */
+	public List<String> nouns() {
+		return Collections.unmodifiableList(Arrays.asList(nouns));
+	}
+	
+	
+	/**
+	 * Returns the i-th noun in sorted order
+	 * @param i noun index
+	 * @return the noun
+	 */
+	public String noun(int i) {
+		return nouns[i];
+	}
+	
+	
+	/**
+	 * Is the word in the dictionary?
+	 * @param word the word
+	 * @return {@code true} if it is a noun, {@code false} otherwise
+	 */
+	public boolean contains(String word) {
+		return indexOf(word) >= 0;
+	}
+	
+	
+	/**
+	 * Returns the index of a noun in sorted order
+	 * @param word the word
+	 * @return its index, or -1 if it is not a noun
+	 */
+	public int indexOf(String word) {
+		if (word == null) {
+			return -1;
+		}
+		for (int slot = hash(word) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			int i = table[slot] - 1;
+			if (nouns[i].equals(word)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	
+	/**
+	 * Returns the synset ids of the i-th noun
+	 * @param i noun index
+	 * @return view of the ids, in posting order
+	 */
+	public Iterable<Integer> synsets(final int i) {
+		return new Iterable<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				return new PostingIterator(offsets[i], offsets[i + 1]);
+			}
+		};
+	}
+	
+	
+	/**
+	 * Returns the index of the first posting of the i-th noun
+	 * @param i noun index
+	 * @return index into the postings
+	 */
+	int postingStart(int i) {
+		return offsets[i];
+	}
+	
+	
+	/**
+	 * Returns one past the index of the last posting of the i-th noun
+	 * @param i noun index
+	 * @return end of the posting range of the noun
+	 */
+	int postingEnd(int i) {
+		return offsets[i + 1];
+	}
+	
+	
+	/**
+	 * Returns the synset id of a posting
+	 * @param p posting index
+	 * @return the synset id
+	 */
+	int posting(int p) {
+		return postings[p];
+	}
+	
+	
+	/**
+	 * Iterator over a range of postings
+	 * @author ckingsley
+	 *
+	 */
+	private class PostingIterator implements Iterator<Integer> {
+		private int p;
+		private final int end;
+	
+		/**
+		 * Constructor
+		 * @param p first posting
+		 * @param end one past the last posting
+		 */
+		PostingIterator(int p, int end) {
+			this.p = p;
+			this.end = end;
+		}
+	
+		@Override
+		public boolean hasNext() {
+			return p < end;
+		}
+	
+		@Override
+		public Integer next() {
+			if (p >= end) throw new NoSuchElementException();
+			return postings[p++];
+		}
+	
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	
+	/**
+	 * Inserts every noun into the hash table
+	 */
+	private void buildTable() {
+		for (int i = 0; i < nouns.length; i++) {
+			int slot = hash(nouns[i]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+	}
+	
+	
+	/**
+	 * Returns a power of two at least twice the number of nouns, keeping the load factor at most 1/2
+	 * @param N number of nouns
+	 * @return the table capacity
+	 */
+	private static int tableCapacity(int N) {
+		int capacity = 2;
+		while (capacity < 2 * N) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+	
+	
+	/**
+	 * Spreads the bits of the String hash code so that the low bits used for the slot depend on all of them
+	 * @param word the word
+	 * @return the hash
+	 */
+	private static int hash(String word) {
+		int h = word.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
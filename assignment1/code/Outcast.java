@@ -26,12 +26,15 @@ public class Outcast {
 		int maxDist = Integer.MIN_VALUE;
 		String outcast = "No outcast found";
 		
+		// one search per noun, each symmetric distance computed once
+		int[][] dist = wordNet.distanceMatrix(nouns);
+		
 		for (int i = 0; i < nouns.length; i++) {
 			int distSum = 0;
 			
 			for (int j = 0; j < nouns.length; j++) {
 				if (i != j) {
-					distSum += wordNet.distance(nouns[i], nouns[j]);
+					distSum += dist[i][j];
 				}
 			}
 			
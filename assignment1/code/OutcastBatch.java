@@ -0,0 +1,403 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Batch mode for Outcast: streams many noun groups through a bounded pool of worker threads that share one
+ * WordNet, and writes the results in input order.
+ *
+ * At most {@code 2 * threads} groups are in flight at any time, so input is read only as fast as it is
+ * answered and memory stays bounded however many groups a job contains.  Results are written from the head of
+ * the in-flight window, so a slow group holds back later output but never reorders it.  A group containing a
+ * word that is not a WordNet noun, or a file that cannot be opened, is reported on its own line and does not
+ * stop the batch.
+ *
+ * Usage: {@code java OutcastBatch synsets.txt hypernyms.txt [-t threads] [-l] file ...}
+ * <ul>
+ *     <li>each file is one group, as for Outcast, unless {@code -l} is given, in which case every line of the
+ *     files after it is one group of whitespace separated nouns</li>
+ *     <li>a file named {@code -} is standard input</li>
+ * </ul>
+ * Throughput and per-group latency percentiles are reported when all groups are done.
+ * @author ckingsley
+ *
+ */
+public final class OutcastBatch {
+	private final Outcast outcast;
+	private final int threads;
+	
+	
+	/**
+	 * One group of nouns and the name its result is reported under
+	 * @author ckingsley
+	 *
+	 */
+	static final class Group {
+		final String name;
+		final String[] nouns;
+		final String error;		// why the group could not be read, or null
+	
+		/**
+		 * Constructor
+		 * @param name file name, or file name and line number
+		 * @param nouns the nouns of the group
+		 */
+		Group(String name, String[] nouns) {
+			this(name, nouns, null);
+		}
+	
+		/**
+		 * Constructor
+		 * @param name file name, or file name and line number
+		 * @param nouns the nouns of the group, or null if it could not be read
+		 * @param error why the group could not be read, or null
+		 */
+		Group(String name, String[] nouns, String error) {
+			this.name = name;
+			this.nouns = nouns;
+			this.error = error;
+		}
+	}
+	
+	
+	/**
+	 * Summary of a finished batch
+	 * @author ckingsley
+	 *
+	 */
+	public static final class Stats {
+		private final int groups;
+		private final int failed;
+		private final long elapsedNanos;
+		private final long[] latencies;		// sorted, in nanoseconds
+	
+		/**
+		 * Constructor
+		 * @param groups number of groups processed
+		 * @param failed number of groups that could not be answered
+		 * @param elapsedNanos wall clock time of the batch
+		 * @param latencies per-group latencies, sorted
+		 */
+		Stats(int groups, int failed, long elapsedNanos, long[] latencies) {
+			this.groups = groups;
+			this.failed = failed;
+			this.elapsedNanos = elapsedNanos;
+			this.latencies = latencies;
+		}
+	
+		/**
+		 * Returns the number of groups processed
+		 * @return the number of groups
+		 */
+		public int groups() {
+			return groups;
+		}
+	
+		/**
+		 * Returns the number of groups that could not be answered
+		 * @return the number of failed groups
+		 */
+		public int failed() {
+			return failed;
+		}
+	
+		/**
+		 * Returns the number of groups answered per second of wall clock time
+		 * @return the throughput
+		 */
+		public double throughput() {
+			return elapsedNanos == 0 ? 0 : groups * 1e9 / elapsedNanos;
+		}
+	
+		/**
+		 * Returns a latency percentile, measured from the moment a worker picks a group up until its outcast is
+		 * found
+		 * @param p the percentile, {@code 0 <= p <= 100}
+		 * @return the latency in microseconds, or 0 if there were no groups
+		 */
+		public double latencyMicros(double p) {
+			if (p < 0 || p > 100) {
+				throw new IllegalArgumentException("percentile " + p + " is not between 0 and 100");
+			}
+			if (latencies.length == 0) {
+				return 0;
+			}
+			int i = (int) Math.ceil(p / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, i)] / 1e3;
+		}
+	
+		@Override
+		public String toString() {
+			return String.format("%d groups (%d failed) in %.1f ms, %.0f groups/s, latency p50 %.0f us, "
+					+ "p99 %.0f us, max %.0f us", groups, failed, elapsedNanos / 1e6, throughput(),
+					latencyMicros(50), latencyMicros(99), latencyMicros(100));
+		}
+	}
+	
+	
+	/**
+	 * Result of one group, as produced by a worker
+	 * @author ckingsley
+	 *
+	 */
+	private static final class Answer {
+		final String line;
+		final boolean failed;
+		final long nanos;
+	
+		/**
+		 * Constructor
+		 * @param line output line
+		 * @param failed was the group rejected?
+		 * @param nanos time spent on the group
+		 */
+		Answer(String line, boolean failed, long nanos) {
+			this.line = line;
+			this.failed = failed;
+			this.nanos = nanos;
+		}
+	}
+	
+	
+	/**
+	 * Receives the output lines of a batch, in input order
+	 * @author ckingsley
+	 *
+	 */
+	interface Output {
+		/**
+		 * Writes one result line
+		 * @param line the line
+		 */
+		void write(String line);
+	}
+	
+	
+	/**
+	 * Constructor
+	 * @param outcast the Outcast shared by all workers
+	 * @param threads number of worker threads
+	 */
+	public OutcastBatch(Outcast outcast, int threads) {
+		if (outcast == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		this.outcast = outcast;
+		this.threads = threads;
+	}
+	
+	
+	/**
+	 * Answers every group and writes one line per group, {@code name: outcast}, in input order
+	 * @param groups the groups, read lazily
+	 * @param out where the lines are written
+	 * @return throughput and latency figures of the batch
+	 */
+	Stats run(Iterator<Group> groups, Output out) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "outcast-worker");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		int window = 2 * threads;
+		ArrayDeque<Future<Answer>> inFlight = new ArrayDeque<Future<Answer>>(window);
+		long[] latencies = new long[64];
+		int count = 0, failed = 0;
+	
+		long start = System.nanoTime();
+		try {
+			while (groups.hasNext() || !inFlight.isEmpty()) {
+				if (groups.hasNext() && inFlight.size() < window) {
+					inFlight.addLast(pool.submit(task(groups.next())));
+					continue;
+				}
+				Answer answer = await(inFlight.removeFirst());
+				out.write(answer.line);
+				if (count == latencies.length) {
+					latencies = Arrays.copyOf(latencies, 2 * count);
+				}
+				latencies[count++] = answer.nanos;
+				if (answer.failed) {
+					failed++;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		long elapsed = System.nanoTime() - start;
+	
+		latencies = Arrays.copyOf(latencies, count);
+		Arrays.sort(latencies);
+		return new Stats(count, failed, elapsed, latencies);
+	}
+	
+	
+	/**
+	 * Returns the task finding the outcast of a group
+	 * @param group the group
+	 * @return the task
+	 */
+	private Callable<Answer> task(final Group group) {
+		return new Callable<Answer>() {
+			@Override
+			public Answer call() {
+				long start = System.nanoTime();
+				if (group.error != null) {
+					return new Answer(group.name + ": error: " + group.error, true, System.nanoTime() - start);
+				}
+				try {
+					String result = outcast.outcast(group.nouns);
+					return new Answer(group.name + ": " + result, false, System.nanoTime() - start);
+				} catch (IllegalArgumentException e) {
+					return new Answer(group.name + ": error: " + e.getMessage(), true, System.nanoTime() - start);
+				}
+			}
+		};
+	}
+	
+	
+	/**
+	 * Waits for a worker's answer
+	 * @param future the pending answer
+	 * @return the answer
+	 */
+	private static Answer await(Future<Answer> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for an outcast", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Outcast worker failed", e.getCause());
+		}
+	}
+	
+	
+	/**
+	 * Reads groups lazily from a list of files, one group per file or one group per line
+	 * @author ckingsley
+	 *
+	 */
+	private static final class GroupReader implements Iterator<Group> {
+		private final String[] files;
+		private int next;				// index of the next file argument
+		private boolean lines;			// one group per line?
+		private In in;					// open record file, if any
+		private String file;
+		private int lineNumber;
+		private Group pending;
+	
+		/**
+		 * Constructor
+		 * @param files file arguments, with {@code -l} switching to one group per line for the files after it
+		 */
+		GroupReader(String[] files) {
+			this.files = files;
+		}
+	
+		@Override
+		public boolean hasNext() {
+			while (pending == null) {
+				if (in != null) {
+					if (in.hasNextLine()) {
+						lineNumber++;
+						String line = in.readLine().trim();
+						if (!line.isEmpty()) {
+							pending = new Group(file + ":" + lineNumber, line.split("\\s+"));
+						}
+						continue;
+					}
+					in.close();
+					in = null;
+				}
+				if (next == files.length) {
+					return false;
+				}
+				String arg = files[next++];
+				if (arg.equals("-l")) {
+					lines = true;
+					continue;
+				}
+				// a file that cannot be opened becomes an error record in its place, not the end of the job
+				try {
+					if (lines) {
+						file = arg;
+						lineNumber = 0;
+						in = open(arg);
+					} else {
+						In whole = open(arg);
+						pending = new Group(arg, whole.readAllStrings());
+						whole.close();
+					}
+				} catch (IllegalArgumentException e) {
+					pending = new Group(arg, null, e.getMessage());
+				}
+			}
+			return true;
+		}
+	
+		@Override
+		public Group next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			Group group = pending;
+			pending = null;
+			return group;
+		}
+	
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	
+		/**
+		 * Opens a file, or standard input for {@code -}
+		 * @param name the file name
+		 * @return the input stream
+		 * @throws IllegalArgumentException if the file cannot be opened
+		 */
+		private static In open(String name) {
+			return name.equals("-") ? new In() : new In(name);
+		}
+	}
+	
+	
+	/**
+	 * Runs a batch from the command line
+	 * @param args synsets file, hypernyms file, options and input files
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			StdOut.println("Usage: java OutcastBatch synsets.txt hypernyms.txt [-t threads] [-l] file ...");
+			return;
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		int first = 2;
+		if (args[first].equals("-t") && args.length > first + 1) {
+			threads = Integer.parseInt(args[first + 1]);
+			first += 2;
+		}
+	
+		WordNet wordnet = new WordNet(args[0], args[1]);
+		OutcastBatch batch = new OutcastBatch(new Outcast(wordnet), threads);
+		Stats stats = batch.run(new GroupReader(Arrays.copyOfRange(args, first, args.length)), new Output() {
+			@Override
+			public void write(String line) {
+				StdOut.println(line);
+			}
+		});
+		StdOut.println(stats + " on " + threads + " threads");
+	}
+}
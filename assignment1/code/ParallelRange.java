@@ -0,0 +1,79 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join task running a loop body for every index of a range on the common pool.
+ * Ranges larger than the grain size are split in half, so callers only choose how many indices are
+ * worth one task.
+ * @author ckingsley
+ *
+ */
+final class ParallelRange extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private final Body body;
+	private final int grain;
+	private final int lo, hi;
+	
+	
+	/**
+	 * Loop body run for each index
+	 * @author ckingsley
+	 *
+	 */
+	interface Body {
+		/**
+		 * Runs the body for one index
+		 * @param i the index
+		 */
+		void run(int i);
+	}
+	
+	
+	/**
+	 * Runs body.run(i) for every i in 0 .. n-1 in parallel and waits for all of them.  A range of at most
+	 * grain indices is run inline on the calling thread without going through the pool.
+	 * @param n number of indices
+	 * @param grain number of indices below which a range is not split further
+	 * @param body the loop body
+	 */
+	static void forEach(int n, int grain, Body body) {
+		if (n <= grain) {
+			for (int i = 0; i < n; i++) {
+				body.run(i);
+			}
+			return;
+		}
+		ForkJoinPool.commonPool().invoke(new ParallelRange(body, Math.max(1, grain), 0, n));
+	}
+	
+	
+	/**
+	 * Constructor
+	 * @param body the loop body
+	 * @param grain number of indices below which a range is not split further
+	 * @param lo first index of the range
+	 * @param hi one past the last index of the range
+	 */
+	private ParallelRange(Body body, int grain, int lo, int hi) {
+		this.body = body;
+		this.grain = grain;
+		this.lo = lo;
+		this.hi = hi;
+	}
+	
+	
+	/**
+	 * Runs the range directly, or splits it and runs both halves in parallel
+	 */
+	@Override
+	protected void compute() {
+		if (hi - lo > grain) {
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new ParallelRange(body, grain, lo, mid), new ParallelRange(body, grain, mid, hi));
+			return;
+		}
+		for (int i = lo; i < hi; i++) {
+			body.run(i);
+		}
+	}
+}
@@ -0,0 +1,408 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Reachability index for a DAG, after GRAIL (Yildirim, Chaoji and Zaki): answers "does v reach w?", i.e. for a
+ * hypernym digraph "is w a hypernym of v?", mostly without touching the graph.
+ *
+ * The index makes k depth-first traversals, each visiting the roots and the edges of every vertex in its own
+ * random order, and gives vertex v in traversal t the interval [low, post], where post is the postorder rank
+ * of v and low the smallest rank among v and its descendants in the DAG.  If v reaches w, the interval of w
+ * nests inside that of v in every traversal, so a single traversal where it does not proves that v cannot
+ * reach w; in a DAG the large majority of negative queries end there.  Otherwise the query falls back to a
+ * depth-first search from v that only enters vertices whose intervals still contain that of w.
+ *
+ * The index also enumerates all ancestors or all descendants of a set of vertices in time proportional to
+ * their number.
+ * This class is immutable - properties cannot be modified after instantiation.  Queries may run on many
+ * threads; each thread keeps its own search workspace.
+ * @author ckingsley
+ *
+ */
+public final class ReachabilityIndex {
+	private static final int DEFAULT_TRAVERSALS = 3;
+	private final CompactDigraph G;
+	private final CompactDigraph reverse;
+	private final int k;
+	private final int[] labels;		// [low, post] of vertex v in traversal t at labels[2 * (v * k + t)]
+	private final ThreadLocal<Search> workspaces;
+	
+	
+	/**
+	 * Per-thread scratch space of the fallback searches and enumerations; a vertex is marked when
+	 * {@code mark[v] == stamp}, so nothing has to be cleared between searches
+	 * @author ckingsley
+	 *
+	 */
+	private static final class Search {
+		final int[] mark;
+		final int[] stack;
+		int stamp;
+	
+		/**
+		 * Constructor
+		 * @param V number of vertices
+		 */
+		Search(int V) {
+			mark = new int[V];
+			stack = new int[2 * V];
+		}
+	
+		/**
+		 * Starts a new search, unmarking every vertex
+		 */
+		void clear() {
+			// stamps stay positive, so that -stamp can mark the sources of an enumeration
+			if (stamp == Integer.MAX_VALUE) {
+				Arrays.fill(mark, 0);
+				stamp = 0;
+			}
+			stamp++;
+		}
+	}
+	
+	
+	/**
+	 * Constructor, labels the DAG with the default number of traversals
+	 * @param G the digraph
+	 * @throws IllegalArgumentException if G has a directed cycle
+	 */
+	public ReachabilityIndex(CompactDigraph G) {
+		this(G, DEFAULT_TRAVERSALS, 0);
+	}
+	
+	
+	/**
+	 * Constructor.  Each traversal costs O(V + E) time and two ints per vertex; more traversals filter out
+	 * more negative queries.
+	 * @param G the digraph
+	 * @param k number of traversals
+	 * @param seed seed of the random traversal orders
+	 * @throws IllegalArgumentException if G has a directed cycle or {@code k < 1}
+	 */
+	public ReachabilityIndex(CompactDigraph G, int k, long seed) {
+		if (k < 1) {
+			throw new IllegalArgumentException("number of traversals must be positive");
+		}
+		this.G = G;
+		this.reverse = G.reverse();
+		this.k = k;
+		int V = G.V();
+		labels = new int[2 * k * V];
+	
+		int roots = 0;
+		int[] root = new int[V];
+		for (int v = 0; v < V; v++) {
+			if (reverse.end(v) == reverse.begin(v)) {
+				root[roots++] = v;
+			}
+		}
+		Random random = new Random(seed);
+		for (int t = 0; t < k; t++) {
+			label(t, Arrays.copyOf(root, roots), random);
+		}
+	
+		workspaces = new ThreadLocal<Search>() {
+			@Override
+			protected Search initialValue() {
+				return new Search(ReachabilityIndex.this.G.V());
+			}
+		};
+	}
+	
+	
+	/**
+	 * Does v reach w?
+	 * @param v first vertex
+	 * @param w second vertex
+	 * @return {@code true} if there is a directed path from v to w (of length 0 when v == w), {@code false}
+	 * otherwise
+	 * @throws IllegalArgumentException unless {@code 0 <= v < V} and {@code 0 <= w < V}
+	 */
+	public boolean reaches(int v, int w) {
+		validateVertex(v);
+		validateVertex(w);
+		if (v == w) return true;
+		if (!nests(w, v)) return false;
+	
+		Search search = workspaces.get();
+		search.clear();
+		int[] stack = search.stack;
+		int top = 0;
+		stack[top++] = v;
+		search.mark[v] = search.stamp;
+		while (top > 0) {
+			int x = stack[--top];
+			for (int e = G.begin(x); e < G.end(x); e++) {
+				int y = G.target(e);
+				if (y == w) return true;
+				if (search.mark[y] != search.stamp && nests(w, y)) {
+					search.mark[y] = search.stamp;
+					stack[top++] = y;
+				}
+			}
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Does any vertex in v reach any vertex in w?
+	 * @param v first set of vertices
+	 * @param w second set of vertices
+	 * @return {@code true} if there is a directed path from a vertex in v to a vertex in w, {@code false} otherwise
+	 * @throws IllegalArgumentException unless each vertex {@code x} in v and w satisfies {@code 0 <= x < V}
+	 */
+	public boolean reaches(Iterable<Integer> v, Iterable<Integer> w) {
+		validateVertices(v);
+		validateVertices(w);
+		for (int x : v) {
+			for (int y : w) {
+				if (reaches(x, y)) return true;
+			}
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Returns every vertex reachable from the passed vertices by a path of at least one edge, nearest first
+	 * @param sources the vertices
+	 * @return the ancestors, in breadth-first order
+	 * @throws IllegalArgumentException unless each vertex {@code x} in sources satisfies {@code 0 <= x < V}
+	 */
+	public int[] ancestors(Iterable<Integer> sources) {
+		return reachable(G, sources);
+	}
+	
+	
+	/**
+	 * Returns every vertex from which one of the passed vertices is reachable by a path of at least one edge,
+	 * nearest first
+	 * @param sources the vertices
+	 * @return the descendants, in breadth-first order
+	 * @throws IllegalArgumentException unless each vertex {@code x} in sources satisfies {@code 0 <= x < V}
+	 */
+	public int[] descendants(Iterable<Integer> sources) {
+		return reachable(reverse, sources);
+	}
+	
+	
+	/**
+	 * Returns the number of traversals behind the labels
+	 * @return k
+	 */
+	public int traversals() {
+		return k;
+	}
+	
+	
+	/**
+	 * Breadth-first search of the vertices reached from the sources by at least one edge.  The sources are
+	 * marked with -stamp rather than stamp, so a source is only reported when another source reaches it.
+	 * @param graph the digraph to follow, G or its reverse
+	 * @param sources the vertices to start from
+	 * @return the vertices reached, in the order they were reached
+	 */
+	private int[] reachable(CompactDigraph graph, Iterable<Integer> sources) {
+		validateVertices(sources);
+		Search search = workspaces.get();
+		search.clear();
+		int[] queue = search.stack;
+		int tail = 0;
+		for (int s : sources) {
+			if (search.mark[s] != -search.stamp) {
+				search.mark[s] = -search.stamp;
+				queue[tail++] = s;
+			}
+		}
+		int head = 0;
+		int first = tail;
+		while (head < tail) {
+			int x = queue[head++];
+			for (int e = graph.begin(x); e < graph.end(x); e++) {
+				int y = graph.target(e);
+				if (search.mark[y] != search.stamp) {
+					search.mark[y] = search.stamp;
+					queue[tail++] = y;
+				}
+			}
+		}
+		return Arrays.copyOfRange(queue, first, tail);
+	}
+	
+	
+	/**
+	 * Does the interval of w nest inside the interval of v in every traversal, as it must if v reaches w?
+	 * @param w the inner vertex
+	 * @param v the outer vertex
+	 * @return {@code true} if every interval of w lies in the matching interval of v, {@code false} otherwise
+	 */
+	private boolean nests(int w, int v) {
+		int i = 2 * w * k;
+		int j = 2 * v * k;
+		for (int t = 0; t < k; t++, i += 2, j += 2) {
+			if (labels[i] < labels[j] || labels[i + 1] > labels[j + 1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Labels every vertex with its interval in one randomized depth-first traversal
+	 * @param t the traversal
+	 * @param roots the vertices no edge enters, visited in random order
+	 * @param random source of the random orders
+	 * @throws IllegalArgumentException if G has a directed cycle
+	 */
+	private void label(int t, int[] roots, Random random) {
+		int V = G.V();
+		for (int i = roots.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int x = roots[i];
+			roots[i] = roots[j];
+			roots[j] = x;
+		}
+	
+		byte[] state = new byte[V];		// 0 unvisited, 1 on the stack, 2 finished
+		int[] stack = new int[V];
+		int[] step = new int[V];		// edges of the vertex taken so far
+		int[] first = new int[V];		// edge the vertex starts from, the others following cyclically
+		int[] low = new int[V];
+		int rank = 0;
+		int finished = 0;
+		for (int r : roots) {
+			int top = 0;
+			stack[top++] = r;
+			enter(r, state, step, first, low, random);
+			while (top > 0) {
+				int x = stack[top - 1];
+				int degree = G.end(x) - G.begin(x);
+				if (step[x] < degree) {
+					int y = G.target(G.begin(x) + (first[x] + step[x]++) % degree);
+					if (state[y] == 0) {
+						stack[top++] = y;
+						enter(y, state, step, first, low, random);
+					} else if (state[y] == 1) {
+						throw new IllegalArgumentException("Passed directed graph has cycle(s)");
+					} else {
+						low[x] = Math.min(low[x], labels[2 * (y * k + t)]);
+					}
+				} else {
+					top--;
+					state[x] = 2;
+					finished++;
+					int post = rank++;
+					low[x] = Math.min(low[x], post);
+					labels[2 * (x * k + t)] = low[x];
+					labels[2 * (x * k + t) + 1] = post;
+					if (top > 0) {
+						int parent = stack[top - 1];
+						low[parent] = Math.min(low[parent], low[x]);
+					}
+				}
+			}
+		}
+		// in a DAG every vertex lies below a root; the rest sit on cycles
+		if (finished < V) {
+			throw new IllegalArgumentException("Passed directed graph has cycle(s)");
+		}
+	}
+	
+	
+	/**
+	 * Pushes a vertex on the traversal stack
+	 * @param x the vertex
+	 * @param state traversal state of each vertex
+	 * @param step edges taken by each vertex
+	 * @param first starting edge of each vertex
+	 * @param low smallest rank seen below each vertex
+	 * @param random source of the starting edge
+	 */
+	private void enter(int x, byte[] state, int[] step, int[] first, int[] low, Random random) {
+		int degree = G.end(x) - G.begin(x);
+		state[x] = 1;
+		step[x] = 0;
+		first[x] = degree > 1 ? random.nextInt(degree) : 0;
+		low[x] = Integer.MAX_VALUE;
+	}
+	
+	
+	/**
+	 * Throws an IllegalArgumentException unless {@code 0 <= v < V}
+	 * @param v vertex number to check
+	 */
+	private void validateVertex(int v) {
+		int V = G.V();
+		if (v < 0 || v >= V)
+			throw new IllegalArgumentException("vertex " + v + " is not between 0 and " + (V-1));
+	}
+	
+	
+	/**
+	 * Throws an IllegalArgumentException unless all v in vertices satisfy {@code 0 <= v < V}
+	 * @param vertices set of vertices to check
+	 */
+	private void validateVertices(Iterable<Integer> vertices) {
+		if (vertices == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		for (int v : vertices) {
+			validateVertex(v);
+		}
+	}
+	
+	
+	/**
+	 * For unit testing of this class: checks reaches(), ancestors() and descendants() from a sample of vertices
+	 * of each course digraph against breadth-first searches
+	 * @param args command line args
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		for (Map.Entry<String, CompactDigraph> course : CourseDigraphs.acyclic().entrySet()) {
+			CompactDigraph G = course.getValue();
+			ReachabilityIndex index = new ReachabilityIndex(G);
+	
+			// every vertex of a small digraph, 100 random ones of a large one
+			int sources = Math.min(G.V(), CourseDigraphs.SMALL);
+			int checks = 0, errors = 0;
+			for (int i = 0; i < sources; i++) {
+				int v = G.V() <= CourseDigraphs.SMALL ? i : random.nextInt(G.V());
+				DeluxeBFS up = new DeluxeBFS(G, v);
+				DeluxeBFS down = new DeluxeBFS(G.reverse(), v);
+				for (int w = 0; w < G.V(); w++) {
+					if (index.reaches(v, w) != up.hasPathTo(w)) errors++;
+				}
+				if (!reachedExactly(index.ancestors(Arrays.asList(v)), up, v)) errors++;
+				if (!reachedExactly(index.descendants(Arrays.asList(v)), down, v)) errors++;
+				checks += G.V() + 2;
+			}
+			StdOut.printf("%s: %d checks, %d errors%n", course.getKey(), checks, errors);
+		}
+	}
+	
+	
+	/**
+	 * Are the vertices exactly those a search from v reached, other than v, each once and nearest first?
+	 * @param vertices the vertices to check
+	 * @param bfs breadth-first search from v
+	 * @param v the source of the search
+	 * @return {@code true} if they are, {@code false} otherwise
+	 */
+	private static boolean reachedExactly(int[] vertices, DeluxeBFS bfs, int v) {
+		if (vertices.length != bfs.visitedCount() - 1) return false;
+		Set<Integer> seen = new HashSet<Integer>();
+		int previous = 1;
+		for (int x : vertices) {
+			if (x == v || !bfs.hasPathTo(x) || !seen.add(x) || bfs.distTo(x) < previous) return false;
+			previous = bfs.distTo(x);
+		}
+		return true;
+	}
+}
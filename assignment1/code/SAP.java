@@ -1,3 +1,10 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
 /**
  * Class that implements shortest ancestral path on a digraph.
  * This class is immutable - properties cannnot be modified after instantiation.
@@ -5,7 +12,46 @@
  *
  */
 public class SAP {
-	private Digraph G;
+	private static final int BATCH_GRAIN = 64;	// pairs per fork-join leaf task
+	private static final int MATRIX_GRAIN = 16;	// sets per fork-join leaf task, so small matrices run inline
+	private final CompactDigraph G;
+	private final SAPLabelIndex index;	// optional, null when queries search the graph
+	private final SAPCache cache;		// optional, null when results are not cached
+	private final ThreadLocal<Workspace> workspaces;
+	private final ThreadLocal<MultiSourceBFS> batchWorkspaces;
+	
+	
+	/**
+	 * Per-thread scratch space of the single queries: a search from each side and the best ancestral path
+	 * they have found, so a query that searches the graph allocates nothing
+	 * @author ckingsley
+	 *
+	 */
+	private static final class Workspace {
+		final DeluxeBFS v, w;
+		int length;		// Integer.MAX_VALUE while the searches have not met, -1 once they never will
+		int ancestor;
+	
+		/**
+		 * Constructor
+		 * @param G the digraph
+		 */
+		Workspace(CompactDigraph G) {
+			v = new DeluxeBFS(G);
+			w = new DeluxeBFS(G);
+		}
+	
+		/**
+		 * Takes the answer of a query from a result computed elsewhere
+		 * @param result the result
+		 * @return this workspace
+		 */
+		Workspace answer(SAPResult result) {
+			length = result.length();
+			ancestor = result.ancestor();
+			return this;
+		}
+	}
 	
 	
 	/**
@@ -13,14 +59,67 @@ public class SAP {
 	 * @param G A digraph (not necessarily a DAG)
 	 */
 	public SAP(Digraph G) {
-		DirectedCycle dc = new DirectedCycle(G);
-		if (dc.hasCycle()) {
+		// the compact copy of the passed Digraph ensures immutability of the SAP class
+		this(new CompactDigraph(G));
+	}
+	
+	
+	/**
+	 * Constructor
+	 * @param G A digraph in compressed sparse row form; it is immutable so no copy is made
+	 */
+	public SAP(CompactDigraph G) {
+		this(G, null);
+	}
+	
+	
+	/**
+	 * Constructor for a SAP whose queries are answered by merging the labels of a two-hop index instead of
+	 * searching the graph
+	 * @param G A digraph in compressed sparse row form; it is immutable so no copy is made
+	 * @param index label index built for G, or null to search the graph
+	 * @throws IllegalArgumentException if the index was not built for G
+	 */
+	public SAP(CompactDigraph G, SAPLabelIndex index) {
+		this(G, index, null);
+	}
+	
+	
+	/**
+	 * Constructor for a SAP that keeps the results of its single queries in a cache, for traffic that asks the
+	 * same pairs again and again.  Batch queries and distance matrices bypass the cache.
+	 * @param G A digraph in compressed sparse row form; it is immutable so no copy is made
+	 * @param index label index built for G, or null to search the graph
+	 * @param cache cache of query results, or null to compute every query; it must only be shared between SAPs
+	 * of the same graph
+	 * @throws IllegalArgumentException if the index was not built for G
+	 */
+	public SAP(CompactDigraph G, SAPLabelIndex index, SAPCache cache) {
+		if (G.hasCycle()) {
 			throw new IllegalArgumentException("Passed directed graph has cycle(s)");
 		}
+		if (index != null && !index.isFor(G)) {
+			throw new IllegalArgumentException("Label index was built for a different graph");
+		}
 		//TODO any other checks to make to the graph?
 		
-		// save a copy of the passed Digraph as an instance variable to ensure immutability of the SAP class
-		this.G = new Digraph(G);
+		this.G = G;
+		this.index = index;
+		this.cache = cache;
+		
+		// each thread gets its own reusable pair of searches, so concurrent queries never share state
+		workspaces = new ThreadLocal<Workspace>() {
+			@Override
+			protected Workspace initialValue() {
+				return new Workspace(SAP.this.G);
+			}
+		};
+		batchWorkspaces = new ThreadLocal<MultiSourceBFS>() {
+			@Override
+			protected MultiSourceBFS initialValue() {
+				return new MultiSourceBFS(SAP.this.G);
+			}
+		};
 	}
 
 	
@@ -31,13 +130,7 @@ public class SAP {
 	 * @return the shortest path distance from v and w as found by breadth first search
 	 */
 	public int length(int v, int w) {
-		validateVertex(v);
-		validateVertex(w);
-		
-		DeluxeBFS bfs_v = new DeluxeBFS(G, v);
-		DeluxeBFS bfs_w = new DeluxeBFS(G, w);
-		
-		return getMinSapDist(bfs_v, bfs_w);
+		return answer(v, w, true).length;
 	}
 
 	 
@@ -48,13 +141,7 @@ public class SAP {
 	 * @return a common ancestor along the shortest path from v and w as found by breadth first search
 	 */
 	public int ancestor(int v, int w) {
-		validateVertex(v);
-		validateVertex(w);
-		
-		DeluxeBFS bfs_v = new DeluxeBFS(G, v);
-		DeluxeBFS bfs_w = new DeluxeBFS(G, w);
-		
-		return getAncestor(bfs_v, bfs_w);
+		return answer(v, w, true).ancestor;
 	}
 	
 	
@@ -66,13 +153,7 @@ public class SAP {
 	 * @return the shortest path distance from v and w as found by breadth first search
 	 */
 	public int length(Iterable<Integer> v, Iterable<Integer> w) {
-		validateVertices(v);
-		validateVertices(w);
-		
-		DeluxeBFS bfs_v = new DeluxeBFS(G, v);
-		DeluxeBFS bfs_w = new DeluxeBFS(G, w);
-		
-		return getMinSapDist(bfs_v, bfs_w);
+		return answer(v, w, true).length;
 	}
 	
 	
@@ -83,58 +164,505 @@ public class SAP {
 	 * @return a common ancestor along the shortest path from v and w as found by breadth first search 
 	 */
 	public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
+		return answer(v, w, true).ancestor;
+	}
+	
+	
+	/**
+	 * Returns both the length of the shortest ancestral path between v and w and a common ancestor on it,
+	 * computed by a single search
+	 * @param v first item to determine shortest ancestral path
+	 * @param w second item to determine shortest ancestral path
+	 * @return the length and ancestor, both -1 if no such path exists
+	 */
+	public SAPResult query(int v, int w) {
+		Workspace ws = answer(v, w, true);
+		return new SAPResult(ws.length, ws.ancestor);
+	}
+	
+	
+	/**
+	 * Answers a single query into this thread's workspace, consulting the cache only if asked to
+	 * @param v first item to determine shortest ancestral path
+	 * @param w second item to determine shortest ancestral path
+	 * @param useCache whether to look the pair up in the cache and store its result there
+	 * @return the workspace holding the length and ancestor, both -1 if no such path exists
+	 */
+	private Workspace answer(int v, int w, boolean useCache) {
+		SAPQueryEvent event = SAPMetrics.ENABLED ? SAPMetrics.begin() : null;
+		validateVertex(v);
+		validateVertex(w);
+		Workspace ws = workspaces.get();
+		SAPCache.Key key = null;
+		if (useCache && cache != null) {
+			key = SAPCache.Key.of(v, w);
+			SAPResult cached = cache.get(key);
+			if (cached != null) {
+				return finish(event, null, ws.answer(cached), false);
+			}
+		}
+		if (index != null) {
+			return finish(event, key, ws.answer(index.query(v, w)), false);
+		}
+		
+		ws.v.start(v);
+		ws.w.start(w);
+		search(ws);
+		return finish(event, key, ws, true);
+	}
+	
+	
+	/**
+	 * Returns both the length of the shortest ancestral path between any vertex in v and any vertex in w and
+	 * a common ancestor on it, computed by a single search
+	 * @param v first set of items to determine shortest ancestral path
+	 * @param w second set of items to determine shortest ancestral path
+	 * @return the length and ancestor, both -1 if no such path exists
+	 */
+	public SAPResult query(Iterable<Integer> v, Iterable<Integer> w) {
+		Workspace ws = answer(v, w, true);
+		return new SAPResult(ws.length, ws.ancestor);
+	}
+	
+	
+	/**
+	 * Answers a single query on sets of vertices into this thread's workspace, consulting the cache only if
+	 * asked to
+	 * @param v first set of items to determine shortest ancestral path
+	 * @param w second set of items to determine shortest ancestral path
+	 * @param useCache whether to look the pair up in the cache and store its result there
+	 * @return the workspace holding the length and ancestor, both -1 if no such path exists
+	 */
+	private Workspace answer(Iterable<Integer> v, Iterable<Integer> w, boolean useCache) {
+		SAPQueryEvent event = SAPMetrics.ENABLED ? SAPMetrics.begin() : null;
 		validateVertices(v);
 		validateVertices(w);
+		Workspace ws = workspaces.get();
+		SAPCache.Key key = null;
+		if (useCache && cache != null) {
+			key = SAPCache.Key.of(v, w);
+			SAPResult cached = cache.get(key);
+			if (cached != null) {
+				return finish(event, null, ws.answer(cached), false);
+			}
+		}
+		if (index != null) {
+			return finish(event, key, ws.answer(index.query(v, w)), false);
+		}
 		
-		DeluxeBFS bfs_v = new DeluxeBFS(G, v);
-		DeluxeBFS bfs_w = new DeluxeBFS(G, w);
+		ws.v.start(v);
+		ws.w.start(w);
+		search(ws);
+		return finish(event, key, ws, true);
+	}
+	
+	
+	/**
+	 * Returns a shortest ancestral path between v and w, from v up to the common ancestor and down to w.
+	 * The path is read off the edges of the search that found it, so it is never searched for twice.
+	 * Path queries always search the graph; the label index and cache only hold lengths and ancestors.
+	 * @param v first item of the shortest ancestral path
+	 * @param w second item of the shortest ancestral path
+	 * @return the length() + 1 vertices on the path, or null if no such path exists
+	 */
+	public int[] path(int v, int w) {
+		SAPQueryEvent event = SAPMetrics.ENABLED ? SAPMetrics.begin() : null;
+		validateVertex(v);
+		validateVertex(w);
 		
-		return getAncestor(bfs_v, bfs_w);
+		Workspace ws = workspaces.get();
+		ws.v.start(v);
+		ws.w.start(w);
+		search(ws);
+		return path(finish(event, null, ws, true));
 	}
 	
 	
 	/**
-	 * Returns a shortest ancestral path distance from two breadth first search results
-	 * @param bfs_v DeluxeBFS object containing breadth first search results from item/set v
-	 * @param bfs_w DeluxeBFS object containing breadth first search results from item/set w
-	 * @return the shortest path distance from v and w as found by breadth first search
+	 * Returns a shortest ancestral path between any vertex in v and any vertex in w, from a vertex of v up to
+	 * the common ancestor and down to a vertex of w.
+	 * The path is read off the edges of the search that found it, so it is never searched for twice.
+	 * Path queries always search the graph; the label index and cache only hold lengths and ancestors.
+	 * @param v first set of items of the shortest ancestral path
+	 * @param w second set of items of the shortest ancestral path
+	 * @return the length() + 1 vertices on the path, or null if no such path exists
+	 */
+	public int[] path(Iterable<Integer> v, Iterable<Integer> w) {
+		SAPQueryEvent event = SAPMetrics.ENABLED ? SAPMetrics.begin() : null;
+		validateVertices(v);
+		validateVertices(w);
+		
+		Workspace ws = workspaces.get();
+		ws.v.start(v);
+		ws.w.start(w);
+		search(ws);
+		return path(finish(event, null, ws, true));
+	}
+	
+	
+	/**
+	 * Reconstructs a shortest ancestral path by following the edges each search reached the ancestor by back
+	 * to its sources, writing both halves straight into the result array
+	 * @param ws the workspace of the search
+	 * @return the vertices on the path, or null if there is none
 	 */
-	private int getMinSapDist(DeluxeBFS bfs_v, DeluxeBFS bfs_w) {
-		int minDist = Integer.MAX_VALUE;
+	private static int[] path(Workspace ws) {
+		if (ws.length == -1) {
+			return null;
+		}
+		int[] path = new int[ws.length + 1];
 		
-		for (int i = 0; i < G.V(); i++) {
-			if (bfs_v.hasPathTo(i) && bfs_w.hasPathTo(i)) {
-				int dist = bfs_v.distTo(i) + bfs_w.distTo(i);
-				if (dist < minDist) {
-					minDist = dist;
-				}
+		// v ... ancestor fills the array from the ancestor's position backwards, ancestor ... w forwards
+		int middle = ws.v.dist(ws.ancestor);
+		int x = ws.ancestor;
+		for (int i = middle; i >= 0; i--) {
+			path[i] = x;
+			x = ws.v.edgeTo(x);
+		}
+		x = ws.ancestor;
+		for (int i = middle + 1; i < path.length; i++) {
+			x = ws.w.edgeTo(x);
+			path[i] = x;
+		}
+		return path;
+	}
+	
+	
+	/**
+	 * Completes a single query: caches its result if it was computed, and records it when metrics are enabled
+	 * @param event the metrics event of the query, null when metrics are disabled
+	 * @param key the cache key to store the result under, or null
+	 * @param ws the workspace holding the result
+	 * @param searched whether the searches of the workspace computed the result, rather than the index or cache
+	 * @return the workspace
+	 */
+	private Workspace finish(SAPQueryEvent event, SAPCache.Key key, Workspace ws, boolean searched) {
+		if (key != null) {
+			cache.put(key, new SAPResult(ws.length, ws.ancestor));
+		}
+		if (SAPMetrics.ENABLED) SAPMetrics.end(event, ws.length, searched ? ws.v : null, searched ? ws.w : null);
+		return ws;
+	}
+	
+	
+	/**
+	 * Returns the lengths of the shortest ancestral paths between v[i] and w[i] for every pair i.  The pairs are
+	 * split across the common fork-join pool; each worker searches with its own per-thread workspaces.  The
+	 * pairs bypass the cache, so a batch of one-off pairs does not evict the pairs single queries keep asking.
+	 * @param v first item of each pair
+	 * @param w second item of each pair
+	 * @return array whose i-th entry is the length for pair i, or -1 if no such path exists
+	 */
+	public int[] length(final int[] v, final int[] w) {
+		if (v == null || w == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		if (v.length != w.length) {
+			throw new IllegalArgumentException("pair arrays have different lengths " + v.length + " and " + w.length);
+		}
+		for (int i = 0; i < v.length; i++) {
+			validateVertex(v[i]);
+			validateVertex(w[i]);
+		}
+		
+		final int[] lengths = new int[v.length];
+		ParallelRange.forEach(v.length, BATCH_GRAIN, new ParallelRange.Body() {
+			@Override
+			public void run(int i) {
+				lengths[i] = answer(v[i], w[i], false).length;
+			}
+		});
+		return lengths;
+	}
+	
+	
+	/**
+	 * Returns the lengths of the shortest ancestral paths between the sets v.get(i) and w.get(i) for every pair
+	 * i.  The pairs are split across the common fork-join pool; each worker searches with its own per-thread
+	 * workspaces.  The pairs bypass the cache, as in length(int[], int[]).
+	 * @param v first set of each pair
+	 * @param w second set of each pair
+	 * @return array whose i-th entry is the length for pair i, or -1 if no such path exists
+	 */
+	public int[] length(final List<? extends Iterable<Integer>> v, final List<? extends Iterable<Integer>> w) {
+		if (v == null || w == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		if (v.size() != w.size()) {
+			throw new IllegalArgumentException("pair lists have different sizes " + v.size() + " and " + w.size());
+		}
+		for (int i = 0; i < v.size(); i++) {
+			validateVertices(v.get(i));
+			validateVertices(w.get(i));
+		}
+		
+		final int[] lengths = new int[v.size()];
+		ParallelRange.forEach(v.size(), BATCH_GRAIN, new ParallelRange.Body() {
+			@Override
+			public void run(int i) {
+				lengths[i] = answer(v.get(i), w.get(i), false).length;
 			}
+		});
+		return lengths;
+	}
+	
+	
+	/**
+	 * Returns the shortest ancestral path of v[i] and w[i] for every pair i.  The pairs are answered 64 at a
+	 * time by a bit-parallel multi-source search (see MultiSourceBFS), so one sweep of the graph advances the
+	 * searches of 64 pairs at once; groups of 64 pairs are spread across the common fork-join pool.  This pays
+	 * off when pairs share vertices or ancestors, as the pairs of outcast groups do; for unrelated pairs the
+	 * independent searches of length(int[], int[]) are cheaper.
+	 * @param v first item of each pair
+	 * @param w second item of each pair
+	 * @return array whose i-th entry is the length and ancestor for pair i, both -1 if no such path exists
+	 */
+	public SAPResult[] query(int[] v, int[] w) {
+		if (v == null || w == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		if (v.length != w.length) {
+			throw new IllegalArgumentException("pair arrays have different lengths " + v.length + " and " + w.length);
+		}
+		for (int i = 0; i < v.length; i++) {
+			validateVertex(v[i]);
+			validateVertex(w[i]);
 		}
 		
-		return (minDist == Integer.MAX_VALUE ? -1 : minDist);
+		// pair i has the single source at index i
+		int[] offsets = new int[v.length + 1];
+		for (int i = 0; i <= v.length; i++) {
+			offsets[i] = i;
+		}
+		return query(v, offsets, w, offsets);
 	}
 	
+	
 	/**
-	 * Returns a common ancestor from the shortest ancestral path between two breadth first search results
-	 * @param bfs_v bfs_v DeluxeBFS object containing breadth first search results from item/set v
-	 * @param bfs_w bfs_v DeluxeBFS object containing breadth first search results from item/set w
-	 * @return a common ancestor along the shortest path from v and w as found by breadth first search
+	 * Returns the shortest ancestral path of the sets v.get(i) and w.get(i) for every pair i, answered 64 pairs
+	 * per sweep by a bit-parallel multi-source search
+	 * @param v first set of each pair
+	 * @param w second set of each pair
+	 * @return array whose i-th entry is the length and ancestor for pair i, both -1 if no such path exists
+	 */
+	public SAPResult[] query(List<? extends Iterable<Integer>> v, List<? extends Iterable<Integer>> w) {
+		if (v == null || w == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		if (v.size() != w.size()) {
+			throw new IllegalArgumentException("pair lists have different sizes " + v.size() + " and " + w.size());
+		}
+		for (int i = 0; i < v.size(); i++) {
+			validateVertices(v.get(i));
+			validateVertices(w.get(i));
+		}
+		
+		int[] vOffsets = new int[v.size() + 1];
+		int[] wOffsets = new int[w.size() + 1];
+		return query(flatten(v, vOffsets), vOffsets, flatten(w, wOffsets), wOffsets);
+	}
+	
+	
+	/**
+	 * Answers a batch of pairs whose sets are stored back to back: the sources of the first set of pair i are
+	 * {@code vSources[vOffsets[i]] .. vSources[vOffsets[i+1] - 1]}, and likewise for the second set
+	 * @param vSources sources of the first sets
+	 * @param vOffsets offsets of the first sets
+	 * @param wSources sources of the second sets
+	 * @param wOffsets offsets of the second sets
+	 * @return array whose i-th entry is the length and ancestor for pair i
 	 */
-	private int getAncestor(DeluxeBFS bfs_v, DeluxeBFS bfs_w) {
-		int minDist = Integer.MAX_VALUE;
-		int ancestor = -1;
+	private SAPResult[] query(final int[] vSources, final int[] vOffsets, final int[] wSources,
+			final int[] wOffsets) {
+		final int n = vOffsets.length - 1;
+		final SAPResult[] results = new SAPResult[n];
+		if (index != null) {
+			for (int i = 0; i < n; i++) {
+				results[i] = index.query(Arrays.asList(box(vSources, vOffsets[i], vOffsets[i + 1])),
+						Arrays.asList(box(wSources, wOffsets[i], wOffsets[i + 1])));
+			}
+			return results;
+		}
+		
+		int groups = (n + MultiSourceBFS.LANES - 1) / MultiSourceBFS.LANES;
+		ParallelRange.forEach(groups, 1, new ParallelRange.Body() {
+			@Override
+			public void run(int group) {
+				int first = group * MultiSourceBFS.LANES;
+				int count = Math.min(MultiSourceBFS.LANES, n - first);
+				batchWorkspaces.get().query(vSources, vOffsets, wSources, wOffsets, first, count, results);
+			}
+		});
+		return results;
+	}
+	
+	
+	/**
+	 * Stores sets back to back
+	 * @param sets the sets
+	 * @param offsets receives the offset of each set, and the total size at the end
+	 * @return the vertices of all sets
+	 */
+	private static int[] flatten(List<? extends Iterable<Integer>> sets, int[] offsets) {
+		int size = 0;
+		for (int i = 0; i < sets.size(); i++) {
+			offsets[i] = size;
+			for (Iterator<Integer> it = sets.get(i).iterator(); it.hasNext(); it.next()) {
+				size++;
+			}
+		}
+		offsets[sets.size()] = size;
 		
-		for (int i = 0; i < G.V(); i++) {
-			if (bfs_v.hasPathTo(i) && bfs_w.hasPathTo(i)) {
-				int dist = bfs_v.distTo(i) + bfs_w.distTo(i);
-				if (dist < minDist) {
-					minDist = dist;
-					ancestor = i;
+		int[] vertices = new int[size];
+		int k = 0;
+		for (Iterable<Integer> set : sets) {
+			for (int x : set) {
+				vertices[k++] = x;
+			}
+		}
+		return vertices;
+	}
+	
+	
+	/**
+	 * Boxes a range of vertices
+	 * @param vertices the vertices
+	 * @param from first index
+	 * @param to one past the last index
+	 * @return the boxed vertices
+	 */
+	private static Integer[] box(int[] vertices, int from, int to) {
+		Integer[] boxed = new Integer[to - from];
+		for (int i = from; i < to; i++) {
+			boxed[i - from] = vertices[i];
+		}
+		return boxed;
+	}
+	
+	
+	/**
+	 * Returns the lengths of the shortest ancestral paths between every pair of the given vertex sets.  Each
+	 * set is searched once, to all of its ancestors, and each pair is then answered by merging the two
+	 * searches; only one half of the symmetric matrix is computed, in parallel rows.
+	 * @param sets the vertex sets
+	 * @return matrix whose entry [i][j] is the length between sets i and j, or -1 if no such path exists
+	 */
+	public int[][] lengthMatrix(List<? extends Iterable<Integer>> sets) {
+		final AncestorLabel[] labels = ancestorLabels(sets);
+		final int n = labels.length;
+		
+		final int[][] lengths = new int[n][n];
+		ParallelRange.forEach(n, MATRIX_GRAIN, new ParallelRange.Body() {
+			@Override
+			public void run(int i) {
+				lengths[i][i] = labels[i].length(labels[i]);
+				for (int j = i + 1; j < n; j++) {
+					lengths[i][j] = labels[i].length(labels[j]);
+					lengths[j][i] = lengths[i][j];
 				}
 			}
+		});
+		return lengths;
+	}
+	
+	
+	/**
+	 * Searches from each of the given vertex sets to all of its ancestors, in parallel
+	 * @param sets the vertex sets
+	 * @return the ancestor label of each set
+	 */
+	AncestorLabel[] ancestorLabels(final List<? extends Iterable<Integer>> sets) {
+		if (sets == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		for (Iterable<Integer> set : sets) {
+			validateVertices(set);
+		}
+		
+		final AncestorLabel[] labels = new AncestorLabel[sets.size()];
+		ParallelRange.forEach(labels.length, MATRIX_GRAIN, new ParallelRange.Body() {
+			@Override
+			public void run(int i) {
+				labels[i] = ancestorLabel(sets.get(i));
+			}
+		});
+		return labels;
+	}
+	
+	
+	/**
+	 * Searches from a vertex set to all of its ancestors
+	 * @param v the set of vertices
+	 * @return the distances from v to each of its ancestors
+	 */
+	AncestorLabel ancestorLabel(Iterable<Integer> v) {
+		DeluxeBFS bfs = workspaces.get().v;
+		bfs.start(v);
+		bfs.bfs();
+		return AncestorLabel.of(bfs);
+	}
+	
+	
+	/**
+	 * Runs two started breadth first searches alternately, one level at a time, until neither can improve
+	 * on the best ancestral path found so far.  A search reaching depth d can only meet the other one at a
+	 * total distance of at least d, so it stops once d reaches the best length; the cost of a query
+	 * therefore depends on how far apart v and w are rather than on the size of the digraph.
+	 * @param ws workspace whose searches were started from item/set v and item/set w; receives the shortest
+	 * ancestral path length and a common ancestor on it, both -1 if no such path exists
+	 */
+	private static void search(Workspace ws) {
+		DeluxeBFS bfs_v = ws.v;
+		DeluxeBFS bfs_w = ws.w;
+		ws.length = Integer.MAX_VALUE;
+		ws.ancestor = -1;
+		
+		// the sources themselves may already be shared
+		meet(bfs_v, bfs_w, ws);
+		
+		while (true) {
+			boolean canExpand_v = bfs_v.frontierSize() > 0 && bfs_v.depth() + 1 < ws.length;
+			boolean canExpand_w = bfs_w.frontierSize() > 0 && bfs_w.depth() + 1 < ws.length;
+			if (!canExpand_v && !canExpand_w) {
+				break;
+			}
+			
+			// advance the side with the smaller frontier, it is the cheaper level to expand
+			if (canExpand_v && (!canExpand_w || bfs_v.frontierSize() <= bfs_w.frontierSize())) {
+				bfs_v.expandLevel();
+				meet(bfs_v, bfs_w, ws);
+			} else {
+				bfs_w.expandLevel();
+				meet(bfs_w, bfs_v, ws);
+			}
 		}
 		
-		return ancestor;
+		if (ws.length == Integer.MAX_VALUE) {
+			ws.length = -1;
+		}
+	}
+	
+	
+	/**
+	 * Checks every vertex in the current frontier of one search against the vertices reached by the other,
+	 * recording any shorter ancestral path found
+	 * @param expanded search whose frontier was just produced
+	 * @param other the opposite search
+	 * @param ws workspace holding the best length and ancestor so far, updated in place
+	 */
+	private static void meet(DeluxeBFS expanded, DeluxeBFS other, Workspace ws) {
+		int depth = expanded.depth();
+		int size = expanded.frontierSize();
+		for (int i = 0; i < size; i++) {
+			int x = expanded.frontierVertex(i);
+			if (other.reached(x)) {
+				int dist = depth + other.dist(x);
+				if (dist < ws.length) {
+					ws.length = dist;
+					ws.ancestor = x;
+				}
+			}
+		}
 	}
 	
 	
@@ -166,20 +694,108 @@ public class SAP {
 
 	
 	/**
-	 * For unit testing of this class
+	 * For unit testing of this class: on each course digraph, checks length(), ancestor() and path() of the
+	 * bidirectional search against complete searches from both sides, for every pair of a small digraph or
+	 * random pairs of a large one, and for random vertex sets
 	 * @param args command line args
 	 */
 	public static void main(String[] args) {
-		In in = new In("wordnet/digraph1.txt");
-	    Digraph G = new Digraph(in);
-	    SAP sap = new SAP(G);
-	    
-        int test[][] = {{3,11}, {9,12}, {7,2}, {1,6}, {7,0}};
-	    for (int i = 0; i < test.length; i++) {
-	    	int length   = sap.length(test[i][0], test[i][1]);
-	        int ancestor = sap.ancestor(test[i][0], test[i][1]);
-	        StdOut.printf("v:%d w:%d length:%d, ancestor:%d\n", test[i][0], test[i][1], length, ancestor);
-	    }
-        
+		Random random = new Random(2);
+		for (Map.Entry<String, CompactDigraph> course : CourseDigraphs.acyclic().entrySet()) {
+			CompactDigraph G = course.getValue();
+			SAP sap = new SAP(G);
+			DeluxeBFS fromV = new DeluxeBFS(G);
+			DeluxeBFS fromW = new DeluxeBFS(G);
+			int errors = 0;
+			
+			boolean all = G.V() <= CourseDigraphs.SMALL;
+			int pairs = all ? G.V() * G.V() : 2000;
+			for (int i = 0; i < pairs; i++) {
+				int v = all ? i / G.V() : random.nextInt(G.V());
+				int w = all ? i % G.V() : random.nextInt(G.V());
+				fromV.start(v);
+				fromV.bfs();
+				fromW.start(w);
+				fromW.bfs();
+				SAPResult expected = meetAll(fromV, fromW);
+				if (!CourseDigraphs.agrees(new SAPResult(sap.length(v, w), sap.ancestor(v, w)), expected, fromV, fromW)) {
+					errors++;
+				}
+				if (!isPath(G, sap.path(v, w), expected, fromV, fromW)) errors++;
+			}
+			
+			int sets = 200;
+			for (int i = 0; i < sets; i++) {
+				List<Integer> v = new ArrayList<Integer>();
+				List<Integer> w = new ArrayList<Integer>();
+				for (int k = random.nextInt(3); k >= 0; k--) v.add(random.nextInt(G.V()));
+				for (int k = random.nextInt(3); k >= 0; k--) w.add(random.nextInt(G.V()));
+				fromV.start(v);
+				fromV.bfs();
+				fromW.start(w);
+				fromW.bfs();
+				SAPResult expected = meetAll(fromV, fromW);
+				if (!CourseDigraphs.agrees(new SAPResult(sap.length(v, w), sap.ancestor(v, w)), expected, fromV, fromW)) {
+					errors++;
+				}
+				if (!isPath(G, sap.path(v, w), expected, fromV, fromW)) errors++;
+			}
+			StdOut.printf("%s: %d pairs and %d sets, %d errors%n", course.getKey(), pairs, sets, errors);
+		}
+	}
+	
+	
+	/**
+	 * Finds the shortest ancestral path by trying every vertex reached by both of two complete searches
+	 * @param fromV complete search from the v side
+	 * @param fromW complete search from the w side
+	 * @return the length and the first ancestor found at it, both -1 if no vertex was reached by both
+	 */
+	private static SAPResult meetAll(DeluxeBFS fromV, DeluxeBFS fromW) {
+		int length = -1, ancestor = -1;
+		for (int i = 0; i < fromV.visitedCount(); i++) {
+			int x = fromV.visitedVertex(i);
+			if (fromW.hasPathTo(x) && (length == -1 || fromV.distTo(x) + fromW.distTo(x) < length)) {
+				length = fromV.distTo(x) + fromW.distTo(x);
+				ancestor = x;
+			}
+		}
+		return new SAPResult(length, ancestor);
+	}
+	
+	
+	/**
+	 * Is a path a shortest ancestral path: expected.length() edges leading up from a source of v and then down
+	 * to a source of w, or null if there is none?
+	 * @param G the digraph
+	 * @param path the path to check
+	 * @param expected the shortest ancestral path found by complete searches
+	 * @param fromV complete search from the v side
+	 * @param fromW complete search from the w side
+	 * @return {@code true} if it is, {@code false} otherwise
+	 */
+	private static boolean isPath(CompactDigraph G, int[] path, SAPResult expected, DeluxeBFS fromV, DeluxeBFS fromW) {
+		if (!expected.hasPath()) return path == null;
+		if (path == null || path.length != expected.length() + 1) return false;
+		if (fromV.distTo(path[0]) != 0 || fromW.distTo(path[path.length - 1]) != 0) return false;
+		int i = 0;
+		while (i + 1 < path.length && hasEdge(G, path[i], path[i + 1])) i++;
+		while (i + 1 < path.length && hasEdge(G, path[i + 1], path[i])) i++;
+		return i == path.length - 1;
+	}
+	
+	
+	/**
+	 * Is there an edge from x to y?
+	 * @param G the digraph
+	 * @param x tail of the edge
+	 * @param y head of the edge
+	 * @return {@code true} if there is, {@code false} otherwise
+	 */
+	private static boolean hasEdge(CompactDigraph G, int x, int y) {
+		for (int e = G.begin(x); e < G.end(x); e++) {
+			if (G.target(e) == y) return true;
+		}
+		return false;
 	}
 }
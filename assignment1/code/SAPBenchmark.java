@@ -0,0 +1,303 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Microbenchmarks of SAP.length, SAP.ancestor, WordNet.distance and WordNet.sap, on the WordNet files or on a
+ * DAG from DAGGenerator.  Each benchmark cycles through a fixed set of random query pairs: it is first run for
+ * a number of warmup iterations so the JIT settles, then for a number of measured iterations of fixed wall
+ * time.  For every benchmark the mean time per call and its deviation across iterations are reported, along
+ * with the bytes allocated per call and the allocation rate, read from the per-thread allocation counter of
+ * HotSpot's ThreadMXBean (reported as n/a on JVMs without one).
+ *
+ * Results are folded into a field the JIT cannot see through, so the calls cannot be optimised away.  Runs
+ * with the same arguments use the same queries, so two builds can be compared number for number.
+ * @author ckingsley
+ *
+ */
+public final class SAPBenchmark {
+	private static final int PAIRS = 1024;
+	private final int warmups;
+	private final int iterations;
+	private final long iterationNanos;
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private volatile long sink;
+	
+	
+	/**
+	 * Operation under test
+	 * @author ckingsley
+	 *
+	 */
+	abstract static class Benchmark {
+		final String name;
+	
+		/**
+		 * Constructor
+		 * @param name name printed in the report
+		 */
+		Benchmark(String name) {
+			this.name = name;
+		}
+	
+		/**
+		 * Runs the i-th call of the benchmark
+		 * @param i call number
+		 * @return a value depending on the result, so the call cannot be eliminated
+		 */
+		abstract long run(int i);
+	}
+	
+	
+	/**
+	 * Measurements of one benchmark
+	 * @author ckingsley
+	 *
+	 */
+	static final class Result {
+		final String name;
+		final double nanosPerOp;
+		final double deviation;			// standard deviation of nanosPerOp across iterations
+		final double bytesPerOp;		// -1 when allocation cannot be measured
+		
+		/**
+		 * Constructor
+		 * @param name benchmark name
+		 * @param nanosPerOp mean time per call
+		 * @param deviation standard deviation of the time per call across iterations
+		 * @param bytesPerOp bytes allocated per call, -1 when unknown
+		 */
+		Result(String name, double nanosPerOp, double deviation, double bytesPerOp) {
+			this.name = name;
+			this.nanosPerOp = nanosPerOp;
+			this.deviation = deviation;
+			this.bytesPerOp = bytesPerOp;
+		}
+		
+		/**
+		 * Returns the allocation rate
+		 * @return megabytes allocated per second of calls, -1 when unknown
+		 */
+		double allocationRate() {
+			return bytesPerOp < 0 ? -1 : bytesPerOp / nanosPerOp * 1e9 / (1 << 20);
+		}
+		
+		@Override
+		public String toString() {
+			String bytes = bytesPerOp < 0 ? "n/a" : String.format("%.1f", bytesPerOp);
+			String rate = bytesPerOp < 0 ? "n/a" : String.format("%.1f", allocationRate());
+			return String.format("%-20s %12.1f %10.1f %12.0f %10s %12s", name, nanosPerOp, deviation, 1e9 / nanosPerOp,
+					bytes, rate);
+		}
+	}
+	
+	
+	/**
+	 * Constructor
+	 * @param warmups number of unmeasured iterations
+	 * @param iterations number of measured iterations
+	 * @param iterationMillis wall time of each iteration
+	 * @throws IllegalArgumentException unless {@code warmups >= 0}, {@code iterations >= 1} and
+	 * {@code iterationMillis >= 1}
+	 */
+	public SAPBenchmark(int warmups, int iterations, long iterationMillis) {
+		if (warmups < 0 || iterations < 1 || iterationMillis < 1) {
+			throw new IllegalArgumentException("need warmups >= 0, iterations >= 1 and iterationMillis >= 1");
+		}
+		this.warmups = warmups;
+		this.iterations = iterations;
+		this.iterationNanos = iterationMillis * 1000000L;
+	}
+	
+	
+	/**
+	 * Benchmarks SAP and WordNet queries on a WordNet
+	 * @param wordNet the WordNet
+	 * @param seed seed of the random query pairs
+	 * @return the results, one per benchmark
+	 */
+	public List<Result> run(final WordNet wordNet, long seed) {
+		final SAP sap = new SAP(wordNet.hypernyms());
+		Random random = new Random(seed);
+		final int[] v = new int[PAIRS], w = new int[PAIRS];
+		int V = wordNet.hypernyms().V();
+		for (int i = 0; i < PAIRS; i++) {
+			v[i] = random.nextInt(V);
+			w[i] = random.nextInt(V);
+		}
+		List<String> all = new ArrayList<String>();
+		for (String noun : wordNet.nouns()) {
+			all.add(noun);
+		}
+		final String[] a = new String[PAIRS], b = new String[PAIRS];
+		for (int i = 0; i < PAIRS; i++) {
+			a[i] = all.get(random.nextInt(all.size()));
+			b[i] = all.get(random.nextInt(all.size()));
+		}
+	
+		List<Result> results = new ArrayList<Result>();
+		results.add(measure(new Benchmark("SAP.length") {
+			@Override
+			long run(int i) {
+				return sap.length(v[i & (PAIRS - 1)], w[i & (PAIRS - 1)]);
+			}
+		}));
+		results.add(measure(new Benchmark("SAP.ancestor") {
+			@Override
+			long run(int i) {
+				return sap.ancestor(v[i & (PAIRS - 1)], w[i & (PAIRS - 1)]);
+			}
+		}));
+		results.add(measure(new Benchmark("WordNet.distance") {
+			@Override
+			long run(int i) {
+				return wordNet.distance(a[i & (PAIRS - 1)], b[i & (PAIRS - 1)]);
+			}
+		}));
+		results.add(measure(new Benchmark("WordNet.sap") {
+			@Override
+			long run(int i) {
+				return wordNet.sap(a[i & (PAIRS - 1)], b[i & (PAIRS - 1)]).length();
+			}
+		}));
+		return results;
+	}
+	
+	
+	/**
+	 * Runs one benchmark through the warmup and measured iterations
+	 * @param benchmark the benchmark
+	 * @return its measurements
+	 */
+	public Result measure(Benchmark benchmark) {
+		for (int k = 0; k < warmups; k++) {
+			iteration(benchmark, null);
+		}
+		double[] nanos = new double[iterations];
+		double bytes = 0;
+		long ops = 0;
+		for (int k = 0; k < iterations; k++) {
+			long[] counts = new long[3];
+			iteration(benchmark, counts);
+			nanos[k] = (double) counts[0] / counts[1];
+			ops += counts[1];
+			bytes = counts[2] < 0 || bytes < 0 ? -1 : bytes + counts[2];
+		}
+	
+		double mean = 0;
+		for (double t : nanos) mean += t;
+		mean /= iterations;
+		double variance = 0;
+		for (double t : nanos) variance += (t - mean) * (t - mean);
+		double deviation = iterations == 1 ? 0 : Math.sqrt(variance / (iterations - 1));
+		return new Result(benchmark.name, mean, deviation, bytes < 0 ? -1 : bytes / ops);
+	}
+	
+	
+	/**
+	 * Calls a benchmark repeatedly for one iteration's worth of wall time
+	 * @param benchmark the benchmark
+	 * @param counts if not null, receives the elapsed nanoseconds, the number of calls and the bytes allocated
+	 * (-1 if unknown)
+	 */
+	private void iteration(Benchmark benchmark, long[] counts) {
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		long deadline = start + iterationNanos;
+		long acc = 0;
+		int ops = 0;
+		long now;
+		// check the clock once every 64 calls
+		do {
+			for (int j = 0; j < 64; j++) {
+				acc += benchmark.run(ops++);
+			}
+			now = System.nanoTime();
+		} while (now < deadline);
+		sink += acc;
+		if (counts != null) {
+			long after = allocatedBytes();
+			counts[0] = now - start;
+			counts[1] = ops;
+			counts[2] = bytes < 0 ? -1 : after - bytes;
+		}
+	}
+	
+	
+	/**
+	 * Returns the bytes allocated so far by the current thread
+	 * @return the number of bytes, or -1 if the JVM does not count them
+	 */
+	@SuppressWarnings("deprecation")
+	private long allocatedBytes() {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+			if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+	
+	
+	/**
+	 * Prints a report of the results
+	 * @param title description of the graph
+	 * @param results the results
+	 */
+	public static void print(String title, List<Result> results) {
+		StdOut.println(title);
+		StdOut.println(String.format("%-20s %12s %10s %12s %10s %12s", "benchmark", "ns/op", "+/-", "ops/s", "B/op", "alloc MB/s"));
+		for (Result r : results) {
+			StdOut.println(r);
+		}
+	}
+	
+	
+	/**
+	 * Runs the benchmarks
+	 * @param args either {@code synsets.txt hypernyms.txt} or {@code -g V branching depth multiParent}, followed
+	 * by the optional {@code -w warmups}, {@code -i iterations}, {@code -ms millisPerIteration}, {@code -s seed}
+	 * and {@code -r} to renumber the synsets in breadth-first order
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			StdOut.println("Usage: java SAPBenchmark (synsets.txt hypernyms.txt | -g V branching depth multiParent)"
+					+ " [-w warmups] [-i iterations] [-ms millis] [-s seed] [-r]");
+			return;
+		}
+		int warmups = 5, iterations = 10;
+		long millis = 1000, seed = 42;
+		boolean relabel = false;
+		int first = args[0].equals("-g") ? 5 : 2;
+		for (int k = first; k < args.length; k++) {
+			if (args[k].equals("-r")) {
+				relabel = true;
+				continue;
+			}
+			if (k + 1 == args.length) throw new IllegalArgumentException("option " + args[k] + " needs a value");
+			if (args[k].equals("-w")) warmups = Integer.parseInt(args[++k]);
+			else if (args[k].equals("-i")) iterations = Integer.parseInt(args[++k]);
+			else if (args[k].equals("-ms")) millis = Long.parseLong(args[++k]);
+			else if (args[k].equals("-s")) seed = Long.parseLong(args[++k]);
+			else throw new IllegalArgumentException("unknown option " + args[k]);
+		}
+	
+		WordNet wordNet;
+		String title;
+		if (args[0].equals("-g")) {
+			CompactDigraph G = DAGGenerator.generate(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+					Integer.parseInt(args[3]), Double.parseDouble(args[4]), seed);
+			if (relabel) G = G.permute(G.bfsOrder());
+			wordNet = DAGGenerator.wordNet(G);
+			title = "generated DAG: " + G.V() + " vertices, " + G.E() + " edges";
+		} else {
+			wordNet = new WordNet(args[0], args[1], null, null, relabel);
+			title = args[0] + ", " + args[1];
+		}
+		SAPBenchmark benchmark = new SAPBenchmark(warmups, iterations, millis);
+		print(relabel ? title + ", relabeled" : title, benchmark.run(wordNet, seed));
+	}
+}
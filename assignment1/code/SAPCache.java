@@ -0,0 +1,661 @@
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent, size-bounded cache of shortest ancestral path results for SAP.  Entries are keyed on the pair of
+ * vertex sets, each sorted with duplicates removed and the two in a fixed order, so {v, w} and {w, v} share
+ * one entry however the sets were passed.
+ *
+ * The cache is split into segments by key hash, each guarded by its own lock, so threads querying different
+ * pairs rarely wait for one another.  Eviction within a segment is either
+ * <ul>
+ * <li>LRU: the least recently used entry goes, or</li>
+ * <li>W-TinyLFU (Einziger, Friedman and Manes): new entries land in a small LRU window; an entry leaving the
+ * window only enters the main segmented LRU if a count-min sketch of recent accesses says it is used more
+ * often than the entry it would evict.  With skewed traffic this keeps the popular pairs cached while one-off
+ * queries pass through the window.</li>
+ * </ul>
+ * Hit, miss and eviction counts are kept in LongAdders and may be read at any time.
+ * @author ckingsley
+ *
+ */
+public final class SAPCache {
+	
+	/**
+	 * Eviction policy
+	 */
+	public enum Policy {
+		/** least recently used */
+		LRU,
+		/** windowed TinyLFU admission in front of a segmented LRU */
+		TINY_LFU
+	}
+	
+	private static final int MIN_SEGMENT_CAPACITY = 64;
+	private final Policy policy;
+	private final int capacity;
+	private final Segment[] segments;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	
+	/**
+	 * Constructor, evicting with W-TinyLFU
+	 * @param capacity greatest number of cached results
+	 * @throws IllegalArgumentException unless {@code capacity >= 1}
+	 */
+	public SAPCache(int capacity) {
+		this(capacity, Policy.TINY_LFU);
+	}
+	
+	
+	/**
+	 * Constructor
+	 * @param capacity greatest number of cached results
+	 * @param policy eviction policy
+	 * @throws IllegalArgumentException unless {@code capacity >= 1} and policy is not null
+	 */
+	public SAPCache(int capacity, Policy policy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		if (policy == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		this.policy = policy;
+		this.capacity = capacity;
+	
+		// a power of two segments, about 4 per processor, none smaller than MIN_SEGMENT_CAPACITY
+		int count = Integer.highestOneBit(Math.max(1, Math.min(4 * Runtime.getRuntime().availableProcessors(),
+				capacity / MIN_SEGMENT_CAPACITY)));
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			int share = capacity / count + (i < capacity % count ? 1 : 0);
+			segments[i] = policy == Policy.LRU ? new LruSegment(share) : new TinyLfuSegment(share);
+		}
+	}
+	
+	
+	/**
+	 * Normalized pair of vertex sets
+	 * @author ckingsley
+	 *
+	 */
+	static final class Key {
+		private final int[] a;
+		private final int[] b;
+		private final int hash;
+	
+		/**
+		 * Constructor
+		 * @param v first set, sorted and distinct
+		 * @param w second set, sorted and distinct
+		 */
+		private Key(int[] v, int[] w) {
+			if (compare(v, w) <= 0) {
+				a = v;
+				b = w;
+			} else {
+				a = w;
+				b = v;
+			}
+			hash = 31 * Arrays.hashCode(a) + Arrays.hashCode(b);
+		}
+	
+		/**
+		 * Returns the key of a pair of vertices
+		 * @param v first vertex
+		 * @param w second vertex
+		 * @return the key
+		 */
+		static Key of(int v, int w) {
+			return new Key(new int[] {v}, new int[] {w});
+		}
+	
+		/**
+		 * Returns the key of a pair of vertex sets
+		 * @param v first set
+		 * @param w second set
+		 * @return the key
+		 */
+		static Key of(Iterable<Integer> v, Iterable<Integer> w) {
+			return new Key(normalize(v), normalize(w));
+		}
+	
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+			Key other = (Key) o;
+			return hash == other.hash && Arrays.equals(a, other.a) && Arrays.equals(b, other.b);
+		}
+	
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	
+		/**
+		 * Returns the distinct vertices of a set in ascending order
+		 * @param vertices the set
+		 * @return the sorted vertices
+		 */
+		private static int[] normalize(Iterable<Integer> vertices) {
+			int[] sorted = new int[8];
+			int n = 0;
+			for (int x : vertices) {
+				if (n == sorted.length) sorted = Arrays.copyOf(sorted, 2 * n);
+				sorted[n++] = x;
+			}
+			Arrays.sort(sorted, 0, n);
+			int distinct = 0;
+			for (int i = 0; i < n; i++) {
+				if (distinct == 0 || sorted[i] != sorted[distinct - 1]) {
+					sorted[distinct++] = sorted[i];
+				}
+			}
+			return Arrays.copyOf(sorted, distinct);
+		}
+	
+		/**
+		 * Compares two sorted sets lexicographically
+		 * @param x first set
+		 * @param y second set
+		 * @return negative, zero or positive as x is before, equal to or after y
+		 */
+		private static int compare(int[] x, int[] y) {
+			for (int i = 0; i < x.length && i < y.length; i++) {
+				if (x[i] != y[i]) return x[i] < y[i] ? -1 : 1;
+			}
+			return x.length - y.length;
+		}
+	}
+	
+	
+	/**
+	 * Returns the cached result of a pair
+	 * @param key the pair
+	 * @return the result, or null if it is not cached
+	 */
+	SAPResult get(Key key) {
+		SAPResult result = segmentOf(key).get(key);
+		if (result == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Caches the result of a pair, possibly evicting another
+	 * @param key the pair
+	 * @param result its result
+	 */
+	void put(Key key, SAPResult result) {
+		if (segmentOf(key).put(key, result)) {
+			evictions.increment();
+		}
+	}
+	
+	
+	/**
+	 * Returns the eviction policy
+	 * @return the policy
+	 */
+	public Policy policy() {
+		return policy;
+	}
+	
+	
+	/**
+	 * Returns the greatest number of cached results
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return capacity;
+	}
+	
+	
+	/**
+	 * Returns the number of cached results
+	 * @return the number of entries
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment s : segments) {
+			size += s.size();
+		}
+		return size;
+	}
+	
+	
+	/**
+	 * Returns the number of lookups that found a cached result
+	 * @return the number of hits
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+	
+	
+	/**
+	 * Returns the number of lookups that found no cached result
+	 * @return the number of misses
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+	
+	
+	/**
+	 * Returns the number of results evicted, or refused by the TinyLFU admission filter, to stay within capacity
+	 * @return the number of evictions
+	 */
+	public long evictions() {
+		return evictions.sum();
+	}
+	
+	
+	/**
+	 * Returns the share of lookups that found a cached result
+	 * @return the hit rate, 0 before the first lookup
+	 */
+	public double hitRate() {
+		long h = hits.sum(), m = misses.sum();
+		return h + m == 0 ? 0 : (double) h / (h + m);
+	}
+	
+	
+	/**
+	 * Removes every cached result and resets the statistics
+	 */
+	public void clear() {
+		for (Segment s : segments) {
+			s.clear();
+		}
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+	
+	
+	@Override
+	public String toString() {
+		return String.format("%s cache: %d/%d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions", policy,
+				size(), capacity, hits(), misses(), 100 * hitRate(), evictions());
+	}
+	
+	
+	/**
+	 * Returns the segment holding a key
+	 * @param key the key
+	 * @return the segment
+	 */
+	private Segment segmentOf(Key key) {
+		int h = key.hash * 0x9E3779B9;
+		return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+	}
+	
+	
+	/**
+	 * Independently locked part of the cache
+	 * @author ckingsley
+	 *
+	 */
+	private abstract static class Segment {
+		
+		/**
+		 * Looks up a key, recording the access
+		 * @param key the key
+		 * @return the cached result, or null
+		 */
+		abstract SAPResult get(Key key);
+		
+		/**
+		 * Adds an entry
+		 * @param key the key
+		 * @param result the result
+		 * @return {@code true} if an entry was evicted or refused to make room, {@code false} otherwise
+		 */
+		abstract boolean put(Key key, SAPResult result);
+		
+		/**
+		 * Returns the number of entries
+		 * @return the number of entries
+		 */
+		abstract int size();
+		
+		/**
+		 * Removes every entry
+		 */
+		abstract void clear();
+	}
+	
+	
+	/**
+	 * Segment evicting its least recently used entry
+	 * @author ckingsley
+	 *
+	 */
+	private static final class LruSegment extends Segment {
+		private final int capacity;
+		private final LinkedHashMap<Key, SAPResult> entries;	// in access order, eldest first
+		
+		/**
+		 * Constructor
+		 * @param capacity greatest number of entries
+		 */
+		LruSegment(int capacity) {
+			this.capacity = capacity;
+			entries = new LinkedHashMap<Key, SAPResult>(16, 0.75f, true);
+		}
+		
+		@Override
+		synchronized SAPResult get(Key key) {
+			return entries.get(key);
+		}
+		
+		@Override
+		synchronized boolean put(Key key, SAPResult result) {
+			if (entries.put(key, result) != null || entries.size() <= capacity) {
+				return false;
+			}
+			removeEldest(entries);
+			return true;
+		}
+		
+		@Override
+		synchronized int size() {
+			return entries.size();
+		}
+		
+		@Override
+		synchronized void clear() {
+			entries.clear();
+		}
+	}
+	
+	
+	/**
+	 * Segment evicting with W-TinyLFU: a window LRU of about 1% of the capacity in front of a main segmented LRU,
+	 * whose protected part holds 80% of the main space for entries hit again while in probation
+	 * @author ckingsley
+	 *
+	 */
+	private static final class TinyLfuSegment extends Segment {
+		private final int windowCapacity;
+		private final int mainCapacity;
+		private final int protectedCapacity;
+		private final LinkedHashMap<Key, SAPResult> window = new LinkedHashMap<Key, SAPResult>(16, 0.75f, true);
+		private final LinkedHashMap<Key, SAPResult> probation = new LinkedHashMap<Key, SAPResult>(16, 0.75f, true);
+		private final LinkedHashMap<Key, SAPResult> protect = new LinkedHashMap<Key, SAPResult>(16, 0.75f, true);
+		private final FrequencySketch sketch;
+		
+		/**
+		 * Constructor
+		 * @param capacity greatest number of entries
+		 */
+		TinyLfuSegment(int capacity) {
+			windowCapacity = Math.max(1, capacity / 100);
+			mainCapacity = Math.max(0, capacity - windowCapacity);
+			protectedCapacity = mainCapacity * 4 / 5;
+			sketch = new FrequencySketch(capacity);
+		}
+		
+		@Override
+		synchronized SAPResult get(Key key) {
+			sketch.increment(key.hash);
+			SAPResult result = window.get(key);
+			if (result != null) {
+				return result;
+			}
+			result = protect.get(key);
+			if (result != null) {
+				return result;
+			}
+			result = probation.remove(key);
+			if (result != null) {
+				// a second hit while on probation promotes the entry, demoting the protected LRU if it is full
+				protect.put(key, result);
+				if (protect.size() > protectedCapacity) {
+					Map.Entry<Key, SAPResult> demoted = removeEldest(protect);
+					probation.put(demoted.getKey(), demoted.getValue());
+				}
+			}
+			return result;
+		}
+		
+		@Override
+		synchronized boolean put(Key key, SAPResult result) {
+			if (window.containsKey(key) || probation.containsKey(key) || protect.containsKey(key)) {
+				return false;
+			}
+			window.put(key, result);
+			if (window.size() <= windowCapacity) {
+				return false;
+			}
+	
+			Map.Entry<Key, SAPResult> candidate = removeEldest(window);
+			if (probation.size() + protect.size() < mainCapacity) {
+				probation.put(candidate.getKey(), candidate.getValue());
+				return false;
+			}
+			// admit the candidate only if it is used more often than the entry it would replace
+			LinkedHashMap<Key, SAPResult> victims = probation.isEmpty() ? protect : probation;
+			if (victims.isEmpty()) {
+				return true;
+			}
+			Key victim = victims.keySet().iterator().next();
+			if (sketch.frequency(candidate.getKey().hash) > sketch.frequency(victim.hash)) {
+				victims.remove(victim);
+				probation.put(candidate.getKey(), candidate.getValue());
+			}
+			return true;
+		}
+		
+		@Override
+		synchronized int size() {
+			return window.size() + probation.size() + protect.size();
+		}
+		
+		@Override
+		synchronized void clear() {
+			window.clear();
+			probation.clear();
+			protect.clear();
+			sketch.clear();
+		}
+	}
+	
+	
+	/**
+	 * Count-min sketch of 4-bit access counters, four per key, packed sixteen to a long.  Once as many accesses as
+	 * ten times the capacity have been counted every counter is halved, so the sketch follows recent traffic.
+	 * @author ckingsley
+	 *
+	 */
+	private static final class FrequencySketch {
+		private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+				0xcbf29ce484222325L};
+		private static final long RESET_MASK = 0x7777777777777777L;
+		private final long[] table;
+		private final int sampleSize;
+		private int additions;
+		
+		/**
+		 * Constructor
+		 * @param capacity number of entries whose frequencies should be told apart
+		 */
+		FrequencySketch(int capacity) {
+			table = new long[Math.max(8, Integer.highestOneBit(capacity - 1) << 1)];
+			sampleSize = 10 * Math.max(capacity, 8);
+		}
+		
+		/**
+		 * Returns the estimated number of recent accesses of a key
+		 * @param hash hash of the key
+		 * @return the estimate, at most 15
+		 */
+		int frequency(int hash) {
+			int start = (hash & 3) << 2;
+			int frequency = 15;
+			for (int i = 0; i < 4; i++) {
+				int offset = (start + i) << 2;
+				frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> offset) & 0xf));
+			}
+			return frequency;
+		}
+		
+		/**
+		 * Counts one access of a key
+		 * @param hash hash of the key
+		 */
+		void increment(int hash) {
+			int start = (hash & 3) << 2;
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				int index = indexOf(hash, i);
+				int offset = (start + i) << 2;
+				if (((table[index] >>> offset) & 0xf) != 0xf) {
+					table[index] += 1L << offset;
+					added = true;
+				}
+			}
+			if (added && ++additions == sampleSize) {
+				for (int i = 0; i < table.length; i++) {
+					table[i] = (table[i] >>> 1) & RESET_MASK;
+				}
+				additions /= 2;
+			}
+		}
+		
+		/**
+		 * Zeroes every counter
+		 */
+		void clear() {
+			Arrays.fill(table, 0);
+			additions = 0;
+		}
+		
+		/**
+		 * Returns the table slot of the i-th counter of a key
+		 * @param hash hash of the key
+		 * @param i counter number, {@code 0 <= i < 4}
+		 * @return the index into table
+		 */
+		private int indexOf(int hash, int i) {
+			long h = (hash + SEEDS[i]) * SEEDS[i];
+			h += h >>> 32;
+			return (int) h & (table.length - 1);
+		}
+	}
+	
+	
+	/**
+	 * Removes the eldest entry of a map in insertion or access order
+	 * @param map the map
+	 * @return the removed entry
+	 */
+	private static Map.Entry<Key, SAPResult> removeEldest(LinkedHashMap<Key, SAPResult> map) {
+		Iterator<Map.Entry<Key, SAPResult>> it = map.entrySet().iterator();
+		Map.Entry<Key, SAPResult> eldest = it.next();
+		Map.Entry<Key, SAPResult> copy = new AbstractMap.SimpleImmutableEntry<Key, SAPResult>(eldest);
+		it.remove();
+		return copy;
+	}
+	
+	
+	/**
+	 * For unit testing of this class: checks key normalization, the size bound and the hit, miss and eviction
+	 * counts of both policies, W-TinyLFU keeping a hot set through a scan, the sketch halving its counters, and
+	 * that a cached SAP answers like an uncached one
+	 * @param args command line args
+	 */
+	public static void main(String[] args) {
+		int errors = 0;
+	
+		// {v, w} and {w, v} share a key, however the sets are passed
+		if (!Key.of(3, 7).equals(Key.of(7, 3))) errors++;
+		if (!Key.of(Arrays.asList(2, 1, 2), Arrays.asList(5)).equals(Key.of(Arrays.asList(5), Arrays.asList(1, 2)))) errors++;
+		if (Key.of(1, 2).equals(Key.of(1, 3))) errors++;
+		StdOut.println("keys: " + errors + " errors");
+	
+		for (Policy policy : Policy.values()) {
+			SAPCache cache = new SAPCache(1000, policy);
+			int puts = 5000;
+			for (int i = 0; i < puts; i++) {
+				Key key = Key.of(i, i + 1);
+				if (cache.get(key) != null) errors++;
+				cache.put(key, new SAPResult(1, i));
+			}
+			if (cache.size() > cache.capacity()) errors++;
+			// every entry put is either still cached or counted as evicted
+			if (cache.evictions() != puts - cache.size()) errors++;
+			int found = 0;
+			for (int i = 0; i < puts; i++) {
+				SAPResult result = cache.get(Key.of(i + 1, i));
+				if (result != null && result.ancestor() != i) errors++;
+				if (result != null) found++;
+			}
+			if (found != cache.size() || cache.hits() != found || cache.misses() != 2 * puts - found) errors++;
+	
+			// a hot set used again and again, then a scan of one-off pairs
+			cache.clear();
+			if (cache.size() != 0) errors++;
+			int hot = 50;
+			for (int round = 0; round < 20; round++) {
+				for (int i = 0; i < hot; i++) {
+					Key key = Key.of(-1, i);
+					if (cache.get(key) == null) cache.put(key, new SAPResult(1, i));
+				}
+			}
+			for (int i = 0; i < puts; i++) {
+				Key key = Key.of(-2, i);
+				if (cache.get(key) == null) cache.put(key, new SAPResult(1, i));
+			}
+			int kept = 0;
+			for (int i = 0; i < hot; i++) {
+				if (cache.get(Key.of(-1, i)) != null) kept++;
+			}
+			if (cache.size() > cache.capacity()) errors++;
+			if (policy == Policy.TINY_LFU && kept < hot * 9 / 10) errors++;
+			StdOut.printf("%s: %d of %d hot pairs survived the scan; %s%n", policy, kept, hot, cache);
+		}
+	
+		// once sampleSize accesses are counted every counter is halved
+		FrequencySketch sketch = new FrequencySketch(64);
+		for (int i = 0; i < 20; i++) {
+			sketch.increment(12345);
+		}
+		int before = sketch.frequency(12345);
+		for (int i = 0; i < 10 * 64; i++) {
+			sketch.increment(1000000 + i);
+		}
+		int after = sketch.frequency(12345);
+		if (before != 15 || after > 7) errors++;
+		StdOut.printf("sketch: frequency %d before halving, %d after%n", before, after);
+	
+		// cached answers match a plain search, in either order
+		CompactDigraph G = new CompactDigraph(new Digraph(new In("wordnet/digraph-wordnet.txt")));
+		SAP plain = new SAP(G);
+		SAPCache cache = new SAPCache(500);
+		SAP cached = new SAP(G, null, cache);
+		Random random = new Random(2);
+		for (int i = 0; i < 20000; i++) {
+			int v = random.nextInt(40), w = random.nextInt(40);
+			SAPResult expected = plain.query(v, w);
+			SAPResult result = i % 2 == 0 ? cached.query(v, w) : cached.query(w, v);
+			if (result.length() != expected.length()) errors++;
+		}
+		StdOut.println("SAP: " + cache);
+		StdOut.println(errors == 0 ? "all checks passed" : errors + " errors");
+	}
+}
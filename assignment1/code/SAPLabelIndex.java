@@ -0,0 +1,547 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Two-hop distance labeling index for shortest ancestral path queries on a DAG.
+ * Every vertex u stores a label of (hub, distance) pairs where each hub is an ancestor of u (u itself
+ * included) and the distance is the exact length of the shortest directed path from u to the hub.  The
+ * shortest ancestral path between v and w is then the minimum of dist(v, h) + dist(w, h) over the hubs h
+ * shared by both labels, found by merging two sorted labels instead of searching the graph.
+ *
+ * Labels are pruned the way pruned landmark labeling prunes them: vertices are processed parents first, and
+ * ancestor h is left out of the label of u when an ancestor x of h already in the label satisfies
+ * dist(u, x) + dist(h, x) <= dist(u, h).  Then x is at least as good a common ancestor as h for any w below
+ * h, and following such x upwards always ends at a hub present in both labels, so merges stay exact.
+ *
+ * The index can be saved to and loaded from a binary file.  It records the fingerprint of the graph it was
+ * built for (see CompactDigraph.fingerprint()), so an index file left over from a different graph of the same
+ * size is detected rather than silently answering for the wrong edges.
+ * This class is immutable - properties cannot be modified after instantiation.
+ * @author ckingsley
+ *
+ */
+public final class SAPLabelIndex {
+	private static final int MAGIC = 0x5341504c;	// "SAPL"
+	private static final int VERSION = 2;
+	private static final int HEADER_INTS = 7;	// magic, version, fingerprint (two ints), V, E, size
+	private static final int INFINITY = Integer.MAX_VALUE;
+	private final int E;
+	private final long fingerprint;	// of the indexed graph
+	private final int[] offsets;	// label of u is the entries offsets[u] .. offsets[u+1]-1
+	private final int[] hubs;		// sorted by hub id within each label
+	private final int[] dists;
+	
+	
+	/**
+	 * Constructor, builds the index for a DAG.  Building costs one search over the ancestors of every vertex.
+	 * @param G the digraph
+	 * @throws IllegalArgumentException if G has a directed cycle
+	 */
+	public SAPLabelIndex(CompactDigraph G) {
+		int V = G.V();
+		int[] order = parentsFirstOrder(G);
+		int[] rank = new int[V];
+		for (int i = 0; i < V; i++) {
+			rank[order[i]] = i;
+		}
+	
+		// labels are produced in topological order, so collect them in growable arrays and lay them out by
+		// vertex id at the end
+		int[] start = new int[V];
+		int[] size = new int[V];
+		int[] labelHubs = new int[2 * V];
+		int[] labelDists = new int[2 * V];
+		int used = 0;
+	
+		DeluxeBFS bfs = new DeluxeBFS(G);
+		int[] keptDist = new int[V];
+		Arrays.fill(keptDist, INFINITY);
+		int[] ancestors = new int[V];
+		int[] kept = new int[V];
+	
+		for (int i = 0; i < V; i++) {
+			int u = order[i];
+	
+			// exact distances from u to all of its ancestors
+			int numAncestors = 0;
+			bfs.start(u);
+			while (bfs.frontierSize() > 0) {
+				for (int j = 0; j < bfs.frontierSize(); j++) {
+					ancestors[numAncestors++] = rank[bfs.frontierVertex(j)];
+				}
+				bfs.expandLevel();
+			}
+			Arrays.sort(ancestors, 0, numAncestors);
+	
+			// decide the ancestors in rank order so that everything above h is settled before h is
+			int numKept = 0;
+			for (int j = 0; j < numAncestors; j++) {
+				int h = order[ancestors[j]];
+				int dist = bfs.distTo(h);
+	
+				// u itself has no label yet and is always kept
+				boolean covered = false;
+				if (h != u) {
+					for (int k = start[h]; k < start[h] + size[h] && !covered; k++) {
+						int x = labelHubs[k];
+						covered = keptDist[x] != INFINITY && keptDist[x] + labelDists[k] <= dist;
+					}
+				}
+				if (!covered) {
+					keptDist[h] = dist;
+					kept[numKept++] = h;
+				}
+			}
+	
+			// store the label sorted by hub id, and clear the scratch distances
+			Arrays.sort(kept, 0, numKept);
+			if (used + numKept > labelHubs.length) {
+				int capacity = Math.max(2 * labelHubs.length, used + numKept);
+				labelHubs = Arrays.copyOf(labelHubs, capacity);
+				labelDists = Arrays.copyOf(labelDists, capacity);
+			}
+			start[u] = used;
+			size[u] = numKept;
+			for (int j = 0; j < numKept; j++) {
+				labelHubs[used] = kept[j];
+				labelDists[used] = keptDist[kept[j]];
+				keptDist[kept[j]] = INFINITY;
+				used++;
+			}
+		}
+	
+		E = G.E();
+		fingerprint = G.fingerprint();
+		offsets = new int[V + 1];
+		hubs = new int[used];
+		dists = new int[used];
+		for (int u = 0; u < V; u++) {
+			offsets[u + 1] = offsets[u] + size[u];
+			System.arraycopy(labelHubs, start[u], hubs, offsets[u], size[u]);
+			System.arraycopy(labelDists, start[u], dists, offsets[u], size[u]);
+		}
+	}
+	
+	
+	/**
+	 * Constructor used when loading an index from disk
+	 * @param E number of edges of the indexed graph
+	 * @param fingerprint fingerprint of the indexed graph
+	 * @param offsets label offsets
+	 * @param hubs label hubs
+	 * @param dists label distances
+	 */
+	private SAPLabelIndex(int E, long fingerprint, int[] offsets, int[] hubs, int[] dists) {
+		this.E = E;
+		this.fingerprint = fingerprint;
+		this.offsets = offsets;
+		this.hubs = hubs;
+		this.dists = dists;
+	}
+	
+	
+	/**
+	 * Returns a copy of this index for the graph with its vertices renumbered by newId, as by
+	 * CompactDigraph.permute(newId).  Hub ids are renumbered and each label sorted again, so the copy answers
+	 * queries on the new ids exactly as this index does on the old ones.
+	 * @param newId new id of each vertex, a permutation of 0 .. V-1
+	 * @param permuted the renumbered graph, G.permute(newId), whose fingerprint the copy records
+	 * @return the renumbered index
+	 */
+	SAPLabelIndex permute(int[] newId, CompactDigraph permuted) {
+		int V = V();
+		int[] oldId = new int[V];
+		for (int v = 0; v < V; v++) {
+			oldId[newId[v]] = v;
+		}
+		int[] permOffsets = new int[V + 1];
+		int[] permHubs = new int[hubs.length];
+		int[] permDists = new int[dists.length];
+		long[] entries = new long[V == 0 ? 0 : maxLabelSize()];
+		int k = 0;
+		for (int i = 0; i < V; i++) {
+			int u = oldId[i];
+			int size = offsets[u + 1] - offsets[u];
+			for (int j = 0; j < size; j++) {
+				entries[j] = ((long) newId[hubs[offsets[u] + j]] << 32) | dists[offsets[u] + j];
+			}
+			Arrays.sort(entries, 0, size);
+			for (int j = 0; j < size; j++, k++) {
+				permHubs[k] = (int) (entries[j] >>> 32);
+				permDists[k] = (int) entries[j];
+			}
+			permOffsets[i + 1] = k;
+		}
+		return new SAPLabelIndex(E, permuted.fingerprint(), permOffsets, permHubs, permDists);
+	}
+	
+	
+	/**
+	 * Returns the size of the largest label
+	 * @return the greatest number of entries of any label
+	 */
+	private int maxLabelSize() {
+		int max = 0;
+		for (int u = 0; u < V(); u++) {
+			max = Math.max(max, offsets[u + 1] - offsets[u]);
+		}
+		return max;
+	}
+	
+	
+	/**
+	 * Returns the number of vertices of the indexed graph
+	 * @return the number of vertices
+	 */
+	public int V() {
+		return offsets.length - 1;
+	}
+	
+	
+	/**
+	 * Returns the number of edges of the indexed graph
+	 * @return the number of edges
+	 */
+	public int E() {
+		return E;
+	}
+	
+	
+	/**
+	 * Returns the fingerprint of the graph the index was built for
+	 * @return the fingerprint, as by CompactDigraph.fingerprint()
+	 */
+	public long fingerprint() {
+		return fingerprint;
+	}
+	
+	
+	/**
+	 * Was the index built for this graph?
+	 * @param G the digraph
+	 * @return {@code true} if G has the fingerprint of the indexed graph, {@code false} otherwise
+	 */
+	public boolean isFor(CompactDigraph G) {
+		return G.fingerprint() == fingerprint;
+	}
+	
+	
+	/**
+	 * Returns the total number of (hub, distance) entries over all labels
+	 * @return the size of the index
+	 */
+	public int size() {
+		return hubs.length;
+	}
+	
+	
+	/**
+	 * Returns length of shortest ancestral path between v and w, or -1 if no such path exists
+	 * @param v first vertex
+	 * @param w second vertex
+	 * @return the shortest ancestral path length
+	 */
+	public int length(int v, int w) {
+		return query(v, w).length();
+	}
+	
+	
+	/**
+	 * Returns a common ancestor of v and w that participates in a shortest ancestral path, or -1 if no such path
+	 * @param v first vertex
+	 * @param w second vertex
+	 * @return a common ancestor on a shortest ancestral path
+	 */
+	public int ancestor(int v, int w) {
+		return query(v, w).ancestor();
+	}
+	
+	
+	/**
+	 * Returns the length of the shortest ancestral path between v and w and a common ancestor on it
+	 * @param v first vertex
+	 * @param w second vertex
+	 * @return the length and ancestor, both -1 if no such path exists
+	 */
+	public SAPResult query(int v, int w) {
+		validateVertex(v);
+		validateVertex(w);
+	
+		long best = merge(v, w, INFINITY);
+		return toResult(best);
+	}
+	
+	
+	/**
+	 * Returns the length of the shortest ancestral path between any vertex in v and any vertex in w and a common
+	 * ancestor on it
+	 * @param v first set of vertices
+	 * @param w second set of vertices
+	 * @return the length and ancestor, both -1 if no such path exists
+	 */
+	public SAPResult query(Iterable<Integer> v, Iterable<Integer> w) {
+		validateVertices(v);
+		validateVertices(w);
+	
+		long best = (long) INFINITY << 32;
+		for (int x : v) {
+			for (int y : w) {
+				long candidate = merge(x, y, (int) (best >>> 32));
+				if (candidate < best) {
+					best = candidate;
+				}
+			}
+		}
+		return toResult(best);
+	}
+	
+	
+	/**
+	 * Merges the labels of v and w, looking for the shared hub with the smallest distance sum
+	 * @param v first vertex
+	 * @param w second vertex
+	 * @param bound only sums smaller than this are of interest
+	 * @return the best sum in the high 32 bits and its hub in the low 32 bits, or INFINITY in the high bits
+	 */
+	private long merge(int v, int w, int bound) {
+		int best = bound;
+		int ancestor = -1;
+		int i = offsets[v], iEnd = offsets[v + 1];
+		int j = offsets[w], jEnd = offsets[w + 1];
+		while (i < iEnd && j < jEnd) {
+			if (hubs[i] < hubs[j]) {
+				i++;
+			} else if (hubs[i] > hubs[j]) {
+				j++;
+			} else {
+				int dist = dists[i] + dists[j];
+				if (dist < best) {
+					best = dist;
+					ancestor = hubs[i];
+				}
+				i++;
+				j++;
+			}
+		}
+		if (ancestor == -1) {
+			return (long) INFINITY << 32;
+		}
+		return ((long) best << 32) | ancestor;
+	}
+	
+	
+	/**
+	 * Unpacks the result of merge()
+	 * @param best packed sum and hub
+	 * @return the corresponding SAPResult
+	 */
+	private static SAPResult toResult(long best) {
+		int length = (int) (best >>> 32);
+		if (length == INFINITY) {
+			return new SAPResult(-1, -1);
+		}
+		return new SAPResult(length, (int) best);
+	}
+	
+	
+	/**
+	 * Writes the index to a binary file
+	 * @param file path of the file to write
+	 * @throws IllegalArgumentException if the file cannot be written
+	 */
+	public void save(String file) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint);
+			out.writeInt(V());
+			out.writeInt(E);
+			out.writeInt(hubs.length);
+			for (int offset : offsets) out.writeInt(offset);
+			for (int hub : hubs) out.writeInt(hub);
+			for (int dist : dists) out.writeInt(dist);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not write index to " + file, e);
+		}
+	}
+	
+	
+	/**
+	 * Reads an index written by save()
+	 * @param file path of the file to read
+	 * @return the index
+	 * @throws IllegalArgumentException if the file cannot be read, is not an index file or is damaged
+	 */
+	public static SAPLabelIndex load(String file) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IllegalArgumentException(file + " is not a SAP label index");
+			}
+			if (in.readInt() != VERSION) {
+				throw new IllegalArgumentException(file + " was written by an unsupported index version");
+			}
+			long fingerprint = in.readLong();
+			int V = in.readInt();
+			int E = in.readInt();
+			int size = in.readInt();
+			// check the counts against the file length before allocating for them
+			long expected = 4L * (HEADER_INTS + (V + 1L) + 2L * size);
+			if (V < 0 || E < 0 || size < 0 || expected != new File(file).length()) {
+				throw new IllegalArgumentException(file + " is corrupt: " + V + " vertices, " + E + " edges and "
+						+ size + " label entries do not match its length");
+			}
+			int[] offsets = new int[V + 1];
+			int[] hubs = new int[size];
+			int[] dists = new int[size];
+			for (int i = 0; i <= V; i++) offsets[i] = in.readInt();
+			for (int i = 0; i < size; i++) hubs[i] = in.readInt();
+			for (int i = 0; i < size; i++) dists[i] = in.readInt();
+			
+			// a damaged file must fail here, not with an array index out of bounds inside query()
+			if (offsets[0] != 0 || offsets[V] != size) {
+				throw new IllegalArgumentException(file + " is corrupt: labels span " + offsets[0] + " .. "
+						+ offsets[V] + " of " + size + " entries");
+			}
+			for (int u = 0; u < V; u++) {
+				if (offsets[u + 1] < offsets[u]) {
+					throw new IllegalArgumentException(file + " is corrupt: label of " + u + " ends before it starts");
+				}
+			}
+			for (int i = 0; i < size; i++) {
+				if (hubs[i] < 0 || hubs[i] >= V) {
+					throw new IllegalArgumentException(file + " is corrupt: hub " + hubs[i] + " is not a vertex");
+				}
+				if (dists[i] < 0) {
+					throw new IllegalArgumentException(file + " is corrupt: hub distance " + dists[i] + " is negative");
+				}
+			}
+			return new SAPLabelIndex(E, fingerprint, offsets, hubs, dists);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not read index from " + file, e);
+		}
+	}
+	
+	
+	/**
+	 * Returns the vertices ordered so that every vertex comes after all of its ancestors, by repeatedly
+	 * removing vertices whose outgoing edges all lead to vertices already removed
+	 * @param G the digraph
+	 * @return vertices in parents first order
+	 * @throws IllegalArgumentException if G has a directed cycle
+	 */
+	private static int[] parentsFirstOrder(CompactDigraph G) {
+		int V = G.V();
+		CompactDigraph reverse = G.reverse();
+		int[] remaining = new int[V];
+		int[] order = new int[V];
+		int head = 0, tail = 0;
+		for (int v = 0; v < V; v++) {
+			remaining[v] = G.end(v) - G.begin(v);
+			if (remaining[v] == 0) order[tail++] = v;
+		}
+		while (head < tail) {
+			int v = order[head++];
+			for (int e = reverse.begin(v); e < reverse.end(v); e++) {
+				int child = reverse.target(e);
+				if (--remaining[child] == 0) order[tail++] = child;
+			}
+		}
+		if (tail != V) {
+			throw new IllegalArgumentException("Passed directed graph has cycle(s)");
+		}
+		return order;
+	}
+	
+	
+	/**
+	 * Throws an IllegalArgumentException unless {@code 0 <= v < V}
+	 * @param v vertex number to check
+	 */
+	private void validateVertex(int v) {
+		if (v < 0 || v >= V())
+			throw new IllegalArgumentException("vertex " + v + " is not between 0 and " + (V()-1));
+	}
+	
+	
+	/**
+	 * Throws an IllegalArgumentException unless all v in vertices satisfy {@code 0 <= v < V}
+	 * @param vertices set of vertices to check
+	 */
+	private void validateVertices(Iterable<Integer> vertices) {
+		if (vertices == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		for (int v : vertices) {
+			validateVertex(v);
+		}
+	}
+	
+	
+	/**
+	 * For unit testing of this class: on each course digraph, checks the index and a saved and reloaded copy of it
+	 * against SAP searches, for every pair of a small digraph or random pairs of a large one, and for random sets
+	 * @param args command line args
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(3);
+		for (Map.Entry<String, CompactDigraph> course : CourseDigraphs.acyclic().entrySet()) {
+			CompactDigraph G = course.getValue();
+			SAPLabelIndex index = new SAPLabelIndex(G);
+			SAP sap = new SAP(G);
+			DeluxeBFS fromV = new DeluxeBFS(G);
+			DeluxeBFS fromW = new DeluxeBFS(G);
+			int errors = 0;
+	
+			// save and load round trip
+			SAPLabelIndex loaded;
+			try {
+				File saved = File.createTempFile("sap", ".idx");
+				index.save(saved.getPath());
+				loaded = load(saved.getPath());
+				saved.delete();
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot create a temporary file", e);
+			}
+			if (!loaded.isFor(G) || loaded.size() != index.size()) errors++;
+	
+			boolean all = G.V() <= CourseDigraphs.SMALL;
+			int pairs = all ? G.V() * G.V() : 2000;
+			for (int i = 0; i < pairs; i++) {
+				int v = all ? i / G.V() : random.nextInt(G.V());
+				int w = all ? i % G.V() : random.nextInt(G.V());
+				fromV.start(v);
+				fromV.bfs();
+				fromW.start(w);
+				fromW.bfs();
+				SAPResult expected = sap.query(v, w);
+				if (!CourseDigraphs.agrees(index.query(v, w), expected, fromV, fromW)) errors++;
+				if (!CourseDigraphs.agrees(loaded.query(v, w), expected, fromV, fromW)) errors++;
+			}
+	
+			int sets = 200;
+			for (int i = 0; i < sets; i++) {
+				List<Integer> v = new ArrayList<Integer>();
+				List<Integer> w = new ArrayList<Integer>();
+				for (int k = random.nextInt(3); k >= 0; k--) v.add(random.nextInt(G.V()));
+				for (int k = random.nextInt(3); k >= 0; k--) w.add(random.nextInt(G.V()));
+				fromV.start(v);
+				fromV.bfs();
+				fromW.start(w);
+				fromW.bfs();
+				if (!CourseDigraphs.agrees(index.query(v, w), sap.query(v, w), fromV, fromW)) errors++;
+			}
+			StdOut.printf("%s: %d pairs and %d sets, %d label entries, %d errors%n", course.getKey(), pairs, sets, index.size(), errors);
+		}
+	}
+}
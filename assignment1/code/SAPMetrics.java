@@ -0,0 +1,219 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Per-query instrumentation of SAP.  While enabled, every query adds the vertices its searches reached, the
+ * edges they scanned, their largest frontier and its wall time to a set of counters and a log2 latency
+ * histogram, published as the {@code WordNet:type=SAPMetrics} MBean, and emits a {@code wordnet.SAPQuery}
+ * flight recorder event.
+ *
+ * Metrics are turned on with {@code -Dsap.metrics=true}.  The flag is read once into a static final field,
+ * so when it is off the JIT drops every guarded call and the searches run exactly as before.  The counters
+ * are LongAdders, which queries on many threads can update without contending on one cache line.
+ * The batch lengths, SAP.length(int[], int[]) and SAP.length(List, List), are recorded once per pair.  The
+ * multi-source batch queries, SAP.query(int[], int[]) and SAP.query(List, List), and the distance matrices
+ * of SAP.lengthMatrix(List) are not recorded.
+ * @author ckingsley
+ *
+ */
+public final class SAPMetrics implements SAPMetricsMBean {
+	static final boolean ENABLED = Boolean.getBoolean("sap.metrics");
+	private static final SAPMetrics INSTANCE = new SAPMetrics();
+	private static final int BUCKETS = 64;
+	private final LongAdder queries = new LongAdder();
+	private final LongAdder pathsFound = new LongAdder();
+	private final LongAdder verticesVisited = new LongAdder();
+	private final LongAdder edgesScanned = new LongAdder();
+	private final LongAdder latencyNanos = new LongAdder();
+	private final LongAccumulator maxFrontier = new LongAccumulator(new LongBinaryOperator() {
+		public long applyAsLong(long a, long b) {
+			return Math.max(a, b);
+		}
+	}, 0);
+	private final LongAdder[] histogram = new LongAdder[BUCKETS];
+	
+	static {
+		if (ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("WordNet:type=SAPMetrics"));
+			} catch (JMException e) {
+				throw new IllegalStateException("cannot register SAPMetrics MBean", e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Constructor
+	 */
+	private SAPMetrics() {
+		for (int b = 0; b < BUCKETS; b++) {
+			histogram[b] = new LongAdder();
+		}
+	}
+	
+	
+	/**
+	 * Returns the metrics of this JVM
+	 * @return the metrics, all 0 unless enabled
+	 */
+	public static SAPMetrics get() {
+		return INSTANCE;
+	}
+	
+	
+	/**
+	 * Is per-query instrumentation on?
+	 * @return {@code true} if the JVM was started with {@code -Dsap.metrics=true}, {@code false} otherwise
+	 */
+	public static boolean enabled() {
+		return ENABLED;
+	}
+	
+	
+	/**
+	 * Starts timing a query; call only when ENABLED
+	 * @return the event to pass to end()
+	 */
+	static SAPQueryEvent begin() {
+		SAPQueryEvent event = new SAPQueryEvent();
+		event.begin();
+		event.startNanos = System.nanoTime();
+		return event;
+	}
+	
+	
+	/**
+	 * Records a finished query; call only when ENABLED
+	 * @param event the event returned by begin()
+	 * @param length the length the query answered, -1 if there is no path
+	 * @param a the search from the v side, or null when the query was answered from an index
+	 * @param b the search from the w side, or null when the query was answered from an index
+	 */
+	static void end(SAPQueryEvent event, int length, DeluxeBFS a, DeluxeBFS b) {
+		long nanos = System.nanoTime() - event.startNanos;
+		long visited = 0, edges = 0;
+		int peak = 0;
+		if (a != null) {
+			visited = a.visitedCount() + b.visitedCount();
+			edges = a.edgesScanned() + b.edgesScanned();
+			peak = Math.max(a.frontierPeak(), b.frontierPeak());
+		}
+		INSTANCE.record(nanos, length != -1, visited, edges, peak);
+		
+		event.end();
+		if (event.shouldCommit()) {
+			event.length = length;
+			event.verticesVisited = visited;
+			event.edgesScanned = edges;
+			event.frontierPeak = peak;
+			event.commit();
+		}
+	}
+	
+	
+	/**
+	 * Adds one query to the counters
+	 * @param nanos wall time of the query
+	 * @param found whether the query found a path
+	 * @param visited vertices reached
+	 * @param edges edges scanned
+	 * @param peak largest frontier
+	 */
+	private void record(long nanos, boolean found, long visited, long edges, int peak) {
+		queries.increment();
+		if (found) pathsFound.increment();
+		verticesVisited.add(visited);
+		edgesScanned.add(edges);
+		maxFrontier.accumulate(peak);
+		latencyNanos.add(nanos);
+		histogram[BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 0))].increment();
+	}
+	
+	
+	@Override
+	public long getQueries() {
+		return queries.sum();
+	}
+	
+	
+	@Override
+	public long getPathsFound() {
+		return pathsFound.sum();
+	}
+	
+	
+	@Override
+	public long getVerticesVisited() {
+		return verticesVisited.sum();
+	}
+	
+	
+	@Override
+	public long getEdgesScanned() {
+		return edgesScanned.sum();
+	}
+	
+	
+	@Override
+	public long getMaxFrontier() {
+		return maxFrontier.get();
+	}
+	
+	
+	@Override
+	public double getMeanLatencyMicros() {
+		long n = queries.sum();
+		return n == 0 ? 0 : latencyNanos.sum() / 1e3 / n;
+	}
+	
+	
+	@Override
+	public long[] getLatencyHistogram() {
+		long[] counts = new long[BUCKETS];
+		for (int b = 0; b < BUCKETS; b++) {
+			counts[b] = histogram[b].sum();
+		}
+		return counts;
+	}
+	
+	
+	@Override
+	public double latencyPercentileMicros(double p) {
+		if (!(p >= 0 && p <= 100)) {
+			throw new IllegalArgumentException("percentile " + p + " is not between 0 and 100");
+		}
+		long[] counts = getLatencyHistogram();
+		long total = 0;
+		for (long c : counts) total += c;
+		if (total == 0) return 0;
+		
+		long rank = Math.max(1, (long) Math.ceil(p / 100 * total));
+		long seen = 0;
+		int b = 0;
+		while (seen + counts[b] < rank) {
+			seen += counts[b++];
+		}
+		// upper edge of bucket b
+		return b == 0 ? 0 : ((1L << b) - 1) / 1e3;
+	}
+	
+	
+	@Override
+	public void reset() {
+		queries.reset();
+		pathsFound.reset();
+		verticesVisited.reset();
+		edgesScanned.reset();
+		latencyNanos.reset();
+		maxFrontier.reset();
+		for (LongAdder h : histogram) {
+			h.reset();
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Management interface of SAPMetrics, published on the platform MBean server as {@code WordNet:type=SAPMetrics}
+ * @author ckingsley
+ *
+ */
+public interface SAPMetricsMBean {
+	
+	/**
+	 * Returns the number of shortest ancestral path queries recorded
+	 * @return the number of queries
+	 */
+	long getQueries();
+	
+	
+	/**
+	 * Returns the number of recorded queries that found a path
+	 * @return the number of queries with a path
+	 */
+	long getPathsFound();
+	
+	
+	/**
+	 * Returns the number of vertices reached by the searches of all recorded queries
+	 * @return the number of vertices visited
+	 */
+	long getVerticesVisited();
+	
+	
+	/**
+	 * Returns the number of edges scanned by the searches of all recorded queries
+	 * @return the number of edges scanned
+	 */
+	long getEdgesScanned();
+	
+	
+	/**
+	 * Returns the largest BFS frontier seen by any recorded query
+	 * @return the largest frontier size
+	 */
+	long getMaxFrontier();
+	
+	
+	/**
+	 * Returns the mean wall time of the recorded queries
+	 * @return the mean latency in microseconds, 0 if no query was recorded
+	 */
+	double getMeanLatencyMicros();
+	
+	
+	/**
+	 * Returns the latency histogram: entry b counts the queries that took between 2^(b-1) and 2^b - 1 nanoseconds
+	 * @return the counts of the 64 latency buckets
+	 */
+	long[] getLatencyHistogram();
+	
+	
+	/**
+	 * Returns an upper bound on the given percentile of the query latency, at the resolution of the histogram
+	 * @param p the percentile, {@code 0 <= p <= 100}
+	 * @return the latency in microseconds
+	 * @throws IllegalArgumentException unless {@code 0 <= p <= 100}
+	 */
+	double latencyPercentileMicros(double p);
+	
+	
+	/**
+	 * Clears every counter and the latency histogram
+	 */
+	void reset();
+}
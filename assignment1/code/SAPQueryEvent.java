@@ -0,0 +1,33 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event emitted for every shortest ancestral path query while SAPMetrics is enabled.
+ * The event's own duration is the wall time of the query; searches answered from a SAPLabelIndex leave the
+ * search fields at 0.
+ * @author ckingsley
+ *
+ */
+@Name("wordnet.SAPQuery")
+@Label("SAP Query")
+@Category("WordNet")
+@Description("A shortest ancestral path query")
+final class SAPQueryEvent extends Event {
+	@Label("Length")
+	int length;
+	
+	@Label("Vertices Visited")
+	long verticesVisited;
+	
+	@Label("Edges Scanned")
+	long edgesScanned;
+	
+	@Label("Frontier Peak")
+	int frontierPeak;
+	
+	// System.nanoTime() at begin(), for the latency histogram whether or not the event is recorded
+	transient long startNanos;
+}
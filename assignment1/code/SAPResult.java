@@ -0,0 +1,77 @@
+/**
+ * Result of a shortest ancestral path query: the length of the path and a common ancestor on it, plus
+ * the synset of the ancestor when the query was made through a WordNet.
+ * This class is immutable - properties cannot be modified after instantiation.
+ * @author ckingsley
+ *
+ */
+public final class SAPResult {
+	private final int length;
+	private final int ancestor;
+	private final String synset;
+	
+	
+	/**
+	 * Constructor
+	 * @param length length of the shortest ancestral path, -1 if there is none
+	 * @param ancestor common ancestor on the shortest ancestral path, -1 if there is none
+	 */
+	SAPResult(int length, int ancestor) {
+		this(length, ancestor, null);
+	}
+	
+	
+	/**
+	 * Constructor
+	 * @param length length of the shortest ancestral path, -1 if there is none
+	 * @param ancestor common ancestor on the shortest ancestral path, -1 if there is none
+	 * @param synset synset of the ancestor, or null
+	 */
+	SAPResult(int length, int ancestor, String synset) {
+		this.length = length;
+		this.ancestor = ancestor;
+		this.synset = synset;
+	}
+	
+	
+	/**
+	 * Returns the length of the shortest ancestral path
+	 * @return the path length, or -1 if no such path exists
+	 */
+	public int length() {
+		return length;
+	}
+	
+	
+	/**
+	 * Returns a common ancestor that participates in the shortest ancestral path
+	 * @return the ancestor vertex (synset id), or -1 if no such path exists
+	 */
+	public int ancestor() {
+		return ancestor;
+	}
+	
+	
+	/**
+	 * Returns the synset (second field of synsets.txt) of the ancestor
+	 * @return the ancestor synset, or null if there is no path or the query was not made through a WordNet
+	 */
+	public String synset() {
+		return synset;
+	}
+	
+	
+	/**
+	 * Is there an ancestral path at all?
+	 * @return {@code true} if the queried vertices share an ancestor, {@code false} otherwise
+	 */
+	public boolean hasPath() {
+		return length >= 0;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return "length:" + length + ", ancestor:" + ancestor + (synset == null ? "" : ", synset:" + synset);
+	}
+}
@@ -1,3 +1,8 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Class representing a WordNet of hyponym/hypernym relationships between sets of synonyms (synsets).
  * This class is immutable - properties cannnot be modified after instantiation.
@@ -6,9 +11,94 @@
  */
 public class WordNet {
 	
-	private ST<String, Queue<Integer>> nouns;
-	private ST<Integer, String> indexedSynsets;
-	private Digraph hypernyms;
+	private final NounDictionary nouns;
+	private final String[] synsets;		// synset by id
+	private final CompactDigraph hypernyms;
+	private final SAP sap;
+	private final int[] externalId;		// synset id in synsets.txt of each internal id, null when not relabeled
+	private volatile ReachabilityIndex reachability;	// built on first use
+	private volatile SynsetNouns synsetNouns;			// built on first use
+	private final ThreadLocal<Descent> descents = new ThreadLocal<Descent>() {
+		@Override
+		protected Descent initialValue() {
+			return new Descent(hypernyms.V(), nouns.size());
+		}
+	};
+	
+	
+	/**
+	 * Per-thread scratch space of nearest(); a synset is reached when {@code mark[v] == stamp}, and a noun
+	 * found when {@code nounMark[i] == stamp}, so nothing has to be cleared between calls
+	 * @author ckingsley
+	 *
+	 */
+	private static final class Descent {
+		final int[] mark;
+		final int[] nounMark;
+		final int[] frontier;
+		final int[] next;
+		int stamp;
+	
+		/**
+		 * Constructor
+		 * @param V number of synsets
+		 * @param N number of nouns
+		 */
+		Descent(int V, int N) {
+			mark = new int[V];
+			nounMark = new int[N];
+			frontier = new int[V];
+			next = new int[V];
+		}
+	
+		/**
+		 * Starts a new descent, unreaching every synset and noun
+		 */
+		void clear() {
+			if (stamp == Integer.MAX_VALUE) {
+				Arrays.fill(mark, 0);
+				Arrays.fill(nounMark, 0);
+				stamp = 0;
+			}
+			stamp++;
+		}
+	}
+	
+	
+	/**
+	 * The nouns of every synset, as indices into the noun dictionary in the order they appear in the synset,
+	 * so that nearest() does not split synset strings
+	 * @author ckingsley
+	 *
+	 */
+	private static final class SynsetNouns {
+		final int[] offsets;	// nouns of synset v are nouns[offsets[v] .. offsets[v+1]-1]
+		final int[] nouns;
+	
+		/**
+		 * Constructor
+		 * @param synsets synset by id, null for unused ids
+		 * @param dictionary the noun dictionary
+		 */
+		SynsetNouns(String[] synsets, NounDictionary dictionary) {
+			offsets = new int[synsets.length + 1];
+			int[] all = new int[16];
+			int size = 0;
+			for (int v = 0; v < synsets.length; v++) {
+				if (synsets[v] != null) {
+					for (String synonym : synsets[v].split(" ")) {
+						if (size == all.length) {
+							all = Arrays.copyOf(all, 2 * size);
+						}
+						all[size++] = dictionary.indexOf(synonym);
+					}
+				}
+				offsets[v + 1] = size;
+			}
+			nouns = Arrays.copyOf(all, size);
+		}
+	}
+	
 	
 	/**
 	 * Constructor
@@ -16,48 +106,122 @@ public class WordNet {
 	 * @param hypernymFile path to hypernyms file
 	 */
 	public WordNet(String synsetFile, String hypernymFile) {
-		// load synsets from synsetFile
-		nouns = new ST<String, Queue<Integer>>();
-		indexedSynsets = new ST<Integer, String>();
+		this(synsetFile, hypernymFile, null);
+	}
+	
+	
+	/**
+	 * Constructor for a WordNet that answers queries from a two-hop label index (see SAPLabelIndex).
+	 * The index is loaded from labelIndexFile if it exists, can be read and was built for these hypernyms,
+	 * otherwise it is built and saved there.
+	 * @param synsetFile path to synsets file
+	 * @param hypernymFile path to hypernyms file
+	 * @param labelIndexFile path to the label index file, or null to answer queries by searching the graph
+	 */
+	public WordNet(String synsetFile, String hypernymFile, String labelIndexFile) {
+		this(synsetFile, hypernymFile, labelIndexFile, null);
+	}
+	
+	
+	/**
+	 * Constructor for a WordNet that keeps the results of distance() and sap() queries in a cache (see SAPCache),
+	 * optionally on top of a two-hop label index
+	 * @param synsetFile path to synsets file
+	 * @param hypernymFile path to hypernyms file
+	 * @param labelIndexFile path to the label index file, or null to answer queries by searching the graph
+	 * @param cache cache of query results, or null to compute every query
+	 */
+	public WordNet(String synsetFile, String hypernymFile, String labelIndexFile, SAPCache cache) {
+		this(synsetFile, hypernymFile, labelIndexFile, cache, false);
+	}
+	
+	
+	/**
+	 * Constructor that can renumber the synsets for cache locality.  With relabel set, synsets get internal ids
+	 * in breadth-first order from the root (see CompactDigraph.bfsOrder()), so that the vertices a search visits
+	 * together sit close together in the search arrays.  The renumbering is invisible from outside: ids
+	 * returned by query() are still those of synsets.txt, and the label index file is kept in those ids too.
+	 * @param synsetFile path to synsets file
+	 * @param hypernymFile path to hypernyms file
+	 * @param labelIndexFile path to the label index file, or null to answer queries by searching the graph
+	 * @param cache cache of query results, or null to compute every query
+	 * @param relabel whether to renumber the synsets internally
+	 */
+	public WordNet(String synsetFile, String hypernymFile, String labelIndexFile, SAPCache cache, boolean relabel) {
+		// load synsets from synsetFile; the file is parsed in parallel chunks
+		WordNetLoader.Synsets loaded = WordNetLoader.loadSynsets(synsetFile);
 		
-		In inSynset = new In(synsetFile);
-		while (inSynset.hasNextLine()) {
-			String[] tokens = inSynset.readLine().split(",");
-			int id = Integer.parseInt(tokens[0]);
-			
-			// add id -> synset mapping to indexedSynsets
-			indexedSynsets.put(id, tokens[1]);
-			
-			// add noun -> id mapping to hypernyms
-			String[] synonyms = tokens[1].split(" ");
-			for (String synonym : synonyms) {
-				Queue<Integer> synIds;
-				if (nouns.contains(synonym)) {
-					synIds = nouns.get(synonym);
-				} else {
-					synIds = new Queue<Integer>();
-					nouns.put(synonym, synIds);
-				}
-				synIds.enqueue(id);
+		// load hypernyms from hypernymFile as an edge list; there is one vertex per synset id
+		WordNetLoader.Hypernyms edges = WordNetLoader.loadHypernyms(hypernymFile);
+		CompactDigraph G = new CompactDigraph(loaded.synsets.length, edges.tails, edges.heads, edges.tails.length);
+		
+		// validate the hypernym graph and build the SAP engine once, so queries only pay for their searches
+		// an index file that is unreadable, damaged, of an older version or built for other hypernyms is rebuilt
+		// rather than trusted
+		SAPLabelIndex index = null;
+		if (labelIndexFile != null && new File(labelIndexFile).exists()) {
+			try {
+				index = SAPLabelIndex.load(labelIndexFile);
+			} catch (IllegalArgumentException e) {
+				index = null;
 			}
 		}
-		inSynset.close();
-		
-		
-		// load hypernyms from hypernymFile into Digraph
-		hypernyms = new Digraph(nouns.size());
-		In inHyper = new In(hypernymFile);
+		if (labelIndexFile != null && (index == null || !index.isFor(G))) {
+			index = new SAPLabelIndex(G);
+			index.save(labelIndexFile);
+		}
 		
-		while (inHyper.hasNextLine()) {
-			String[] tokens = inHyper.readLine().split(",");
-			int v = Integer.parseInt(tokens[0]);
-			for (int i = 1; i < tokens.length; i++) {
-				int w = Integer.parseInt(tokens[i]);
-				hypernyms.addEdge(v, w);
+		if (relabel) {
+			int[] newId = G.bfsOrder();
+			externalId = G.inverse(newId);
+			synsets = new String[loaded.synsets.length];
+			for (int id = 0; id < synsets.length; id++) {
+				synsets[newId[id]] = loaded.synsets[id];
 			}
+			int[] nounSynsets = new int[loaded.nounSynsets.length];
+			for (int p = 0; p < nounSynsets.length; p++) {
+				nounSynsets[p] = newId[loaded.nounSynsets[p]];
+			}
+			nouns = new NounDictionary(loaded.nouns, nounSynsets);
+			hypernyms = G.permute(newId);
+			if (index != null) {
+				index = index.permute(newId, hypernyms);
+			}
+		} else {
+			externalId = null;
+			synsets = loaded.synsets;
+			nouns = new NounDictionary(loaded.nouns, loaded.nounSynsets);
+			hypernyms = G;
 		}
-		inHyper.close();
-		
+		sap = new SAP(hypernyms, index, cache);
+	}
+
+	
+	/**
+	 * Constructor for a WordNet whose tables have already been loaded, e.g. from a WordNetSnapshot
+	 * @param nouns noun -> synset ids dictionary
+	 * @param synsets synset by id
+	 * @param hypernyms hypernym digraph
+	 */
+	WordNet(NounDictionary nouns, String[] synsets, CompactDigraph hypernyms) {
+		this(nouns, synsets, hypernyms, null);
+	}
+	
+	
+	/**
+	 * Constructor for a WordNet whose tables have already been loaded with internal ids, e.g. from a snapshot of
+	 * a relabeled WordNet
+	 * @param nouns noun -> synset ids dictionary
+	 * @param synsets synset by id
+	 * @param hypernyms hypernym digraph
+	 * @param externalId synsets.txt id of each internal id, or null if the ids are those of synsets.txt
+	 */
+	WordNet(NounDictionary nouns, String[] synsets, CompactDigraph hypernyms, int[] externalId) {
+		this.nouns = nouns;
+		this.synsets = synsets;
+		this.hypernyms = hypernyms;
+		this.externalId = externalId;
+		this.sap = new SAP(hypernyms);
 	}
 
 	 
@@ -66,7 +230,7 @@ public class WordNet {
 	 * @return Iterable collection of all nouns in all synsets in the WordNet
 	 */
 	public Iterable<String> nouns() {
-		return nouns.keys();
+		return nouns.nouns();
 	}
 
 	
@@ -87,17 +251,166 @@ public class WordNet {
 	 * @return Shortest ancestral path distance between two passed nouns
 	 */
 	public int distance(String nounA, String nounB) {
-		validateNoun(nounA);
-		validateNoun(nounB);
-		
-		Queue<Integer> synsetA = nouns.get(nounA);
-		Queue<Integer> synsetB = nouns.get(nounB);
+		Iterable<Integer> synsetA = synsetsOf(nounA);
+		Iterable<Integer> synsetB = synsetsOf(nounB);
 		
-		SAP sap = new SAP(hypernyms);
 		return sap.length(synsetA, synsetB);
 	}
 
 	
+	/**
+	 * Returns the shortest ancestral path distances between nounsA[i] and nounsB[i] for every pair i, computed
+	 * in parallel
+	 * @param nounsA first noun of each pair
+	 * @param nounsB second noun of each pair
+	 * @return array whose i-th entry is the distance for pair i
+	 */
+	public int[] distance(String[] nounsA, String[] nounsB) {
+		if (nounsA == null || nounsB == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		if (nounsA.length != nounsB.length) {
+			throw new IllegalArgumentException("noun arrays have different lengths " + nounsA.length + " and " + nounsB.length);
+		}
+		
+		List<Iterable<Integer>> synsetsA = new ArrayList<Iterable<Integer>>(nounsA.length);
+		List<Iterable<Integer>> synsetsB = new ArrayList<Iterable<Integer>>(nounsB.length);
+		for (int i = 0; i < nounsA.length; i++) {
+			synsetsA.add(synsetsOf(nounsA[i]));
+			synsetsB.add(synsetsOf(nounsB[i]));
+		}
+		
+		return sap.length(synsetsA, synsetsB);
+	}
+	
+	
+	/**
+	 * Returns the shortest ancestral path distances between every pair of the given nouns.  Each noun is
+	 * searched once and the symmetric matrix is filled in parallel rows.
+	 * @param nouns the nouns
+	 * @return matrix whose entry [i][j] is the distance between nouns[i] and nouns[j]
+	 */
+	public int[][] distanceMatrix(String[] nouns) {
+		return sap.lengthMatrix(synsetsOf(nouns));
+	}
+	
+	
+	/**
+	 * Returns the k nouns nearest to the passed noun by shortest ancestral path distance, nearest first.
+	 * The search climbs once from the synsets of the noun to all of their ancestors, then descends the hyponym
+	 * edges from every ancestor at once, each starting at its distance from the noun.  Synsets are reached in
+	 * order of their distance, so the search stops as soon as k nouns have been found; nouns further away than
+	 * the k-th are never looked at.  Nouns at the same distance are returned in search order.  The search arrays
+	 * are kept per thread and reused, so a call for a small k costs about as much as the synsets it visits.
+	 * @param noun the noun
+	 * @param k number of nouns to return
+	 * @return up to k nouns other than the passed one, in order of nondecreasing distance
+	 */
+	public List<String> nearest(String noun, int k) {
+		Iterable<Integer> sources = synsetsOf(noun);
+		if (k < 0) {
+			throw new IllegalArgumentException("k must be nonnegative");
+		}
+		List<String> nearest = new ArrayList<String>(Math.min(k, nouns.size()));
+		if (k == 0) {
+			return nearest;
+		}
+		
+		// distances up to every ancestor, ordered by distance
+		AncestorLabel up = sap.ancestorLabel(sources);
+		long[] starts = new long[up.size()];
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = ((long) up.dist(i) << 32) | up.ancestor(i);
+		}
+		Arrays.sort(starts);
+		
+		// level-by-level descent; ancestors join the frontier at the level of their own distance, so every
+		// synset is first reached at its shortest ancestral path distance
+		CompactDigraph down = hyponyms();
+		Descent descent = descents.get();
+		descent.clear();
+		int[] mark = descent.mark;
+		int stamp = descent.stamp;
+		int[] frontier = descent.frontier;
+		int[] next = descent.next;
+		int[] nounMark = descent.nounMark;
+		nounMark[nouns.indexOf(noun)] = stamp;
+		SynsetNouns lists = synsetNouns();
+		int s = 0;
+		int size = 0;
+		for (int d = 0; s < starts.length || size > 0; d++) {
+			for (; s < starts.length && (int) (starts[s] >>> 32) == d; s++) {
+				int v = (int) starts[s];
+				if (mark[v] != stamp) {
+					mark[v] = stamp;
+					frontier[size++] = v;
+				}
+			}
+			
+			int nextSize = 0;
+			for (int i = 0; i < size; i++) {
+				int v = frontier[i];
+				for (int j = lists.offsets[v]; j < lists.offsets[v + 1]; j++) {
+					int synonym = lists.nouns[j];
+					if (nounMark[synonym] != stamp) {
+						nounMark[synonym] = stamp;
+						nearest.add(nouns.noun(synonym));
+						if (nearest.size() == k) {
+							return nearest;
+						}
+					}
+				}
+				for (int e = down.begin(v); e < down.end(v); e++) {
+					int w = down.target(e);
+					if (mark[w] != stamp) {
+						mark[w] = stamp;
+						next[nextSize++] = w;
+					}
+				}
+			}
+			
+			int[] swap = frontier;
+			frontier = next;
+			next = swap;
+			size = nextSize;
+		}
+		return nearest;
+	}
+	
+	
+	/**
+	 * Is nounA a kind of nounB, i.e. is a synset of nounB a hypernym, direct or not, of a synset of nounA?
+	 * Every noun is a kind of itself.  Answered from a ReachabilityIndex built on first use, so most calls do
+	 * not search the graph.
+	 * @param nounA the more specific noun
+	 * @param nounB the more general noun
+	 * @return {@code true} if nounA is a kind of nounB, {@code false} otherwise
+	 */
+	public boolean isA(String nounA, String nounB) {
+		return reachability().reaches(synsetsOf(nounA), synsetsOf(nounB));
+	}
+	
+	
+	/**
+	 * Returns every hypernym, direct or not, of the synsets of the passed noun
+	 * @param noun the noun
+	 * @return the hypernym synsets (second field of synsets.txt), nearest first
+	 */
+	public List<String> hypernymsOf(String noun) {
+		return synsetNames(reachability().ancestors(synsetsOf(noun)));
+	}
+	
+	
+	/**
+	 * Returns every hyponym, direct or not, of the synsets of the passed noun
+	 * @param noun the noun
+	 * @return the hyponym synsets (second field of synsets.txt), nearest first
+	 */
+	public List<String> hyponymsOf(String noun) {
+		return synsetNames(reachability().descendants(synsetsOf(noun)));
+	}
+	
+	
 	/**
 	 * Returns a synset (second field of synsets.txt) that is the common ancestor of nounA and nounB
 	 * in a shortest ancestral path
@@ -106,30 +419,186 @@ public class WordNet {
 	 * @return The synset ancestor on the shortest ancestral path between the passed nouns
 	 */
 	public String sap(String nounA, String nounB) {
-		validateNoun(nounA);
-		validateNoun(nounB);
-		
-		Queue<Integer> synsetA = nouns.get(nounA);
-		Queue<Integer> synsetB = nouns.get(nounB);
-		
-		SAP sap = new SAP(hypernyms);
+		Iterable<Integer> synsetA = synsetsOf(nounA);
+		Iterable<Integer> synsetB = synsetsOf(nounB);
 		
 		int ancestor = sap.ancestor(synsetA, synsetB);
-		if (indexedSynsets.contains(ancestor)) {
-			return indexedSynsets.get(ancestor);
+		if (ancestor >= 0 && synsets[ancestor] != null) {
+			return synsets[ancestor];
 		}
 		return "No ancestor Found";
 	}
 	
 	
 	/**
-	 * Checks that the passed noun is present in the synset
-	 * @param noun noun to check for presence in the synset
+	 * Returns the shortest ancestral path length between nounA and nounB together with the common ancestor
+	 * and its synset, computed by a single search rather than separate distance() and sap() calls
+	 * @param nounA First noun used to find shortest ancestral path
+	 * @param nounB Second noun used to find shortest ancestral path
+	 * @return length, ancestor synset id and ancestor synset; the synset is null if there is no path
+	 */
+	public SAPResult query(String nounA, String nounB) {
+		Iterable<Integer> synsetA = synsetsOf(nounA);
+		Iterable<Integer> synsetB = synsetsOf(nounB);
+		
+		SAPResult result = sap.query(synsetA, synsetB);
+		int ancestor = result.ancestor();
+		if (ancestor >= 0 && synsets[ancestor] != null) {
+			return new SAPResult(result.length(), externalId == null ? ancestor : externalId[ancestor], synsets[ancestor]);
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the synsets on a shortest ancestral path between nounA and nounB, from a synset of nounA up to
+	 * the common ancestor and down to a synset of nounB, found by a single search
+	 * @param nounA First noun used to find shortest ancestral path
+	 * @param nounB Second noun used to find shortest ancestral path
+	 * @return the distance() + 1 synsets (second field of synsets.txt) on the path, or null if there is none
+	 */
+	public String[] path(String nounA, String nounB) {
+		Iterable<Integer> synsetA = synsetsOf(nounA);
+		Iterable<Integer> synsetB = synsetsOf(nounB);
+		
+		int[] ids = sap.path(synsetA, synsetB);
+		if (ids == null) {
+			return null;
+		}
+		String[] path = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			path[i] = synsets[ids[i]];
+		}
+		return path;
+	}
+	
+	
+	/**
+	 * Searches from the synsets of each of the passed nouns to all of their ancestors, for DistanceMatrixFile
+	 * @param nouns the nouns
+	 * @return the ancestor label of each noun
+	 */
+	AncestorLabel[] ancestorLabels(String[] nouns) {
+		return sap.ancestorLabels(synsetsOf(nouns));
+	}
+	
+	
+	/**
+	 * Returns the noun -> synset ids dictionary, in internal ids, for WordNetSnapshot
+	 * @return the noun dictionary
+	 */
+	NounDictionary nounDictionary() {
+		return nouns;
+	}
+	
+	
+	/**
+	 * Returns the synsets by internal id, for WordNetSnapshot
+	 * @return the synset array; callers must not modify it
+	 */
+	String[] synsetTable() {
+		return synsets;
+	}
+	
+	
+	/**
+	 * Returns the synsets.txt id of each internal synset id, for WordNetSnapshot and MutableWordNet
+	 * @return the id map, or null if the internal ids are those of synsets.txt; callers must not modify it
+	 */
+	int[] externalIds() {
+		return externalId;
+	}
+	
+	
+	/**
+	 * Returns the hypernym digraph, in internal ids
+	 * @return the hypernym digraph
+	 */
+	CompactDigraph hypernyms() {
+		return hypernyms;
+	}
+	
+	
+	/**
+	 * Returns the synset ids of each of the passed nouns
+	 * @param nouns nouns to look up
+	 * @return the ids of the synsets containing each noun
+	 */
+	private List<Iterable<Integer>> synsetsOf(String[] nouns) {
+		if (nouns == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		
+		List<Iterable<Integer>> synsets = new ArrayList<Iterable<Integer>>(nouns.length);
+		for (String noun : nouns) {
+			synsets.add(synsetsOf(noun));
+		}
+		return synsets;
+	}
+	
+	
+	/**
+	 * Returns the hyponym digraph, the reverse of the hypernym digraph, which is built on first use
+	 * @return the hyponym digraph
+	 */
+	private CompactDigraph hyponyms() {
+		return hypernyms.reverse();
+	}
+	
+	
+	/**
+	 * Returns the nouns of every synset, building them on first use
+	 * @return the nouns of every synset
+	 */
+	private SynsetNouns synsetNouns() {
+		SynsetNouns lists = synsetNouns;
+		if (lists == null) {
+			lists = new SynsetNouns(synsets, nouns);
+			synsetNouns = lists;
+		}
+		return lists;
+	}
+	
+	
+	/**
+	 * Returns the reachability index of the hypernym digraph, building it on first use
+	 * @return the reachability index
+	 */
+	private ReachabilityIndex reachability() {
+		ReachabilityIndex index = reachability;
+		if (index == null) {
+			index = new ReachabilityIndex(hypernyms);
+			reachability = index;
+		}
+		return index;
+	}
+	
+	
+	/**
+	 * Returns the synsets with the passed ids
+	 * @param ids synset ids
+	 * @return the synsets, in the order of the ids
+	 */
+	private List<String> synsetNames(int[] ids) {
+		List<String> names = new ArrayList<String>(ids.length);
+		for (int id : ids) {
+			names.add(synsets[id]);
+		}
+		return names;
+	}
+	
+	
+	/**
+	 * Returns the synset ids of the passed noun, checking that it is present in the synset
+	 * @param noun noun to look up
+	 * @return the ids of the synsets containing the noun
 	 */
-	private void validateNoun(String noun) {
-		if (!isNoun(noun)) {
+	private Iterable<Integer> synsetsOf(String noun) {
+		int i = nouns.indexOf(noun);
+		if (i < 0) {
 			throw new IllegalArgumentException("\'" + noun + "\' is not a valid noun in the synset");
 		}
+		return nouns.synsets(i);
 	}
 
 	 
@@ -141,6 +610,7 @@ public class WordNet {
 		WordNet wordNet = new WordNet("wordnet/synsets.txt", "wordnet/hypernyms.txt");
 		System.out.println(wordNet.sap("individual","edible_fruit"));
 		System.out.println(wordNet.distance("individual","edible_fruit"));
+		System.out.println(String.join(" -> ", wordNet.path("individual","edible_fruit")));
 		System.out.println(wordNet.distance("municipality", "region"));
 		System.out.println(wordNet.distance("Black_Plague", "black_marlin"));
 		System.out.println(wordNet.distance("American_water_spaniel", "histology"));
@@ -0,0 +1,292 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Load generator for WordNetServer.  Opens a number of connections, each on its own thread, and keeps a fixed
+ * number of requests in flight on each: a new request is sent as soon as an answer comes back, so with a depth
+ * above 1 the requests are pipelined.  The latency of a request runs from the moment it is written to the
+ * moment its answer is read.  Requests are a fixed mix of distance, sap, isNoun and outcast queries over random
+ * nouns from a synsets file, drawn from a seeded generator so that runs can be compared.
+ * @author ckingsley
+ *
+ */
+public final class WordNetLoadClient {
+	private final String[] nouns;
+	private final InetAddress host;
+	private final int port;
+	
+	
+	/**
+	 * Summary of one load run
+	 * @author ckingsley
+	 *
+	 */
+	public static final class Stats {
+		private final int requests;
+		private final int errors;
+		private final long elapsedNanos;
+		private final long[] latencies;		// sorted, in nanoseconds
+	
+		/**
+		 * Constructor
+		 * @param requests number of requests answered
+		 * @param errors number of ERR answers
+		 * @param elapsedNanos wall clock time of the run
+		 * @param latencies per-request latencies, sorted
+		 */
+		Stats(int requests, int errors, long elapsedNanos, long[] latencies) {
+			this.requests = requests;
+			this.errors = errors;
+			this.elapsedNanos = elapsedNanos;
+			this.latencies = latencies;
+		}
+	
+		/**
+		 * Returns the number of requests answered
+		 * @return the number of requests
+		 */
+		public int requests() {
+			return requests;
+		}
+	
+		/**
+		 * Returns the number of requests answered with an error
+		 * @return the number of errors
+		 */
+		public int errors() {
+			return errors;
+		}
+	
+		/**
+		 * Returns the number of requests answered per second of wall clock time
+		 * @return the throughput
+		 */
+		public double throughput() {
+			return elapsedNanos == 0 ? 0 : requests * 1e9 / elapsedNanos;
+		}
+	
+		/**
+		 * Returns a percentile of the request latency
+		 * @param p the percentile, {@code 0 <= p <= 100}
+		 * @return the latency in microseconds
+		 * @throws IllegalArgumentException unless {@code 0 <= p <= 100}
+		 */
+		public double latencyMicros(double p) {
+			if (p < 0 || p > 100) {
+				throw new IllegalArgumentException("percentile " + p + " is not between 0 and 100");
+			}
+			if (latencies.length == 0) {
+				return 0;
+			}
+			int i = (int) Math.ceil(p / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, i)] / 1e3;
+		}
+	
+		@Override
+		public String toString() {
+			return String.format("%d requests (%d errors) in %.1f ms, %.0f requests/s, latency p50 %.0f us, "
+					+ "p99 %.0f us, max %.0f us", requests, errors, elapsedNanos / 1e6, throughput(),
+					latencyMicros(50), latencyMicros(99), latencyMicros(100));
+		}
+	}
+	
+	
+	/**
+	 * Constructor
+	 * @param synsetFile synsets file to draw the nouns of the requests from
+	 * @param host server address
+	 * @param port server port
+	 * @throws IllegalArgumentException if the synsets file cannot be read
+	 */
+	public WordNetLoadClient(String synsetFile, InetAddress host, int port) {
+		List<String> words = new ArrayList<String>();
+		try {
+			for (String line : Files.readAllLines(Paths.get(synsetFile), StandardCharsets.UTF_8)) {
+				String[] fields = line.split(",");
+				if (fields.length > 1) {
+					words.addAll(Arrays.asList(fields[1].split(" ")));
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("cannot read " + synsetFile, e);
+		}
+		if (words.isEmpty()) {
+			throw new IllegalArgumentException(synsetFile + " has no nouns");
+		}
+		this.nouns = words.toArray(new String[0]);
+		this.host = host;
+		this.port = port;
+	}
+	
+	
+	/**
+	 * Runs a load test
+	 * @param connections number of connections
+	 * @param requests number of requests per connection
+	 * @param depth number of requests kept in flight per connection
+	 * @param seed seed of the request mix
+	 * @return the summary of the run
+	 * @throws IllegalArgumentException unless all counts are positive
+	 * @throws IllegalStateException if a connection fails
+	 */
+	public Stats run(int connections, final int requests, final int depth, long seed) {
+		if (connections < 1 || requests < 1 || depth < 1) {
+			throw new IllegalArgumentException("connections, requests and depth must be positive");
+		}
+		final long[][] latencies = new long[connections][];
+		final int[] errors = new int[connections];
+		final IOException[] failures = new IOException[connections];
+		Thread[] threads = new Thread[connections];
+	
+		long start = System.nanoTime();
+		for (int c = 0; c < connections; c++) {
+			final int connection = c;
+			final Random random = new Random(seed + c);
+			threads[c] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					latencies[connection] = new long[requests];
+					try {
+						errors[connection] = drive(random, requests, depth, latencies[connection]);
+					} catch (IOException e) {
+						failures[connection] = e;
+					}
+				}
+			}, "wordnet-load-" + c);
+			threads[c].start();
+		}
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for a connection", e);
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+	
+		for (IOException e : failures) {
+			if (e != null) {
+				throw new IllegalStateException("connection to " + host + ":" + port + " failed", e);
+			}
+		}
+		long[] all = new long[connections * requests];
+		int failed = 0;
+		for (int c = 0; c < connections; c++) {
+			System.arraycopy(latencies[c], 0, all, c * requests, requests);
+			failed += errors[c];
+		}
+		Arrays.sort(all);
+		return new Stats(all.length, failed, elapsed, all);
+	}
+	
+	
+	/**
+	 * Sends the requests of one connection, keeping depth of them in flight
+	 * @param random source of the request mix
+	 * @param requests number of requests
+	 * @param depth number of requests in flight
+	 * @param latencies receives the latency of each request, in nanoseconds
+	 * @return the number of ERR answers
+	 * @throws IOException if the connection fails
+	 */
+	private int drive(Random random, int requests, int depth, long[] latencies) throws IOException {
+		long[] sent = new long[depth];		// send time of request r at sent[r % depth]
+		int errors = 0;
+		try (Socket socket = new Socket(host, port);
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+			socket.setTcpNoDelay(true);
+			int next = 0;
+			for (; next < Math.min(depth, requests); next++) {
+				sent[next] = System.nanoTime();
+				out.write(request(random));
+			}
+			out.flush();
+			for (int r = 0; r < requests; r++) {
+				String answer = in.readLine();
+				long now = System.nanoTime();
+				if (answer == null) {
+					throw new IOException("server closed the connection after " + r + " answers");
+				}
+				latencies[r] = now - sent[r % depth];
+				if (!answer.startsWith("OK")) errors++;
+				if (next < requests) {
+					sent[next % depth] = System.nanoTime();
+					out.write(request(random));
+					out.flush();
+					next++;
+				}
+			}
+			out.write("quit\n");
+			out.flush();
+		}
+		return errors;
+	}
+	
+	
+	/**
+	 * Draws the next request of the mix: half distance, a fifth each sap and isNoun, a tenth outcast of 5 nouns
+	 * @param random source of the mix
+	 * @return the request line, with line terminator
+	 */
+	private String request(Random random) {
+		int kind = random.nextInt(10);
+		if (kind < 5) return "distance " + noun(random) + " " + noun(random) + "\n";
+		if (kind < 7) return "sap " + noun(random) + " " + noun(random) + "\n";
+		if (kind < 9) return "isNoun " + noun(random) + "\n";
+		StringBuilder line = new StringBuilder("outcast");
+		for (int i = 0; i < 5; i++) {
+			line.append(' ').append(noun(random));
+		}
+		return line.append('\n').toString();
+	}
+	
+	
+	/**
+	 * Draws a random noun
+	 * @param random source of the draw
+	 * @return the noun
+	 */
+	private String noun(Random random) {
+		return nouns[random.nextInt(nouns.length)];
+	}
+	
+	
+	/**
+	 * Runs a load test against a server on this machine
+	 * @param args synsets.txt [-p port] [-c connections] [-n requests per connection] [-d depth] [-s seed]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			StdOut.println("Usage: java WordNetLoadClient synsets.txt [-p port] [-c connections] [-n requests] [-d depth] [-s seed]");
+			return;
+		}
+		int port = WordNetServer.DEFAULT_PORT, connections = 4, requests = 10000, depth = 1;
+		long seed = 42;
+		for (int k = 1; k + 1 < args.length; k += 2) {
+			if (args[k].equals("-p")) port = Integer.parseInt(args[k + 1]);
+			else if (args[k].equals("-c")) connections = Integer.parseInt(args[k + 1]);
+			else if (args[k].equals("-n")) requests = Integer.parseInt(args[k + 1]);
+			else if (args[k].equals("-d")) depth = Integer.parseInt(args[k + 1]);
+			else if (args[k].equals("-s")) seed = Long.parseLong(args[k + 1]);
+			else throw new IllegalArgumentException("unknown option " + args[k]);
+		}
+		WordNetLoadClient client = new WordNetLoadClient(args[0], InetAddress.getLoopbackAddress(), port);
+		Stats stats = client.run(connections, requests, depth, seed);
+		StdOut.println(stats + " over " + connections + " connections at depth " + depth);
+	}
+}
@@ -0,0 +1,513 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parallel streaming loader for the WordNet synsets and hypernyms text files.
+ * A file is read in blocks of about BLOCK bytes, each cut after its last complete line, with the partial line
+ * carried into the next block.  Every block is parsed on the common fork-join pool while the next one is read,
+ * by scanning for the comma and space separators and accumulating ids digit by digit, without readLine() or
+ * regex-backed String.split().  At most a few blocks per processor are in flight, so the raw bytes held at
+ * once stay bounded however large the file is; only the parsed results are kept, and they are concatenated
+ * in file order.
+ * @author ckingsley
+ *
+ */
+final class WordNetLoader {
+	private static final int BLOCK = 1 << 20;	// bytes read and parsed per task
+	
+	
+	/**
+	 * Not instantiable
+	 */
+	private WordNetLoader() { }
+	
+	
+	/**
+	 * Contents of a synsets file
+	 * @author ckingsley
+	 *
+	 */
+	static final class Synsets {
+		final String[] synsets;		// synset by id, null for unused ids
+		final String[] nouns;		// noun of each (noun, synset id) posting, in file order
+		final int[] nounSynsets;	// synset id of each posting
+		final int count;			// number of synset lines
+	
+		/**
+		 * Constructor
+		 * @param synsets synset by id
+		 * @param nouns noun of each posting
+		 * @param nounSynsets synset id of each posting
+		 * @param count number of synset lines
+		 */
+		Synsets(String[] synsets, String[] nouns, int[] nounSynsets, int count) {
+			this.synsets = synsets;
+			this.nouns = nouns;
+			this.nounSynsets = nounSynsets;
+			this.count = count;
+		}
+	}
+	
+	
+	/**
+	 * Contents of a hypernyms file as an edge list
+	 * @author ckingsley
+	 *
+	 */
+	static final class Hypernyms {
+		final int[] tails;
+		final int[] heads;
+	
+		/**
+		 * Constructor
+		 * @param tails synset id of each edge
+		 * @param heads hypernym id of each edge
+		 */
+		Hypernyms(int[] tails, int[] heads) {
+			this.tails = tails;
+			this.heads = heads;
+		}
+	}
+	
+	
+	/**
+	 * Loads a synsets file, whose lines are {@code id,noun noun ...,gloss}
+	 * @param file path to the synsets file
+	 * @return the synsets and noun postings
+	 * @throws IllegalArgumentException if the file cannot be read or a line is malformed
+	 */
+	static Synsets loadSynsets(final String file) {
+		List<SynsetChunk> parsed = parseBlocks(file, new BlockParser<SynsetChunk>() {
+			@Override
+			public SynsetChunk parse(byte[] data, int to, long base) {
+				return parseSynsets(data, 0, to, base, file);
+			}
+		});
+	
+		int count = 0, postings = 0, maxId = -1;
+		long maxIdOffset = 0;
+		for (SynsetChunk chunk : parsed) {
+			count += chunk.count;
+			postings += chunk.postings;
+			if (chunk.maxId > maxId) {
+				maxId = chunk.maxId;
+				maxIdOffset = chunk.maxIdOffset;
+			}
+		}
+		
+		// ids index an array, so one huge id must not allocate far more than the file holds.  Ids below the
+		// number of nouns were always accepted, as the original loader made one vertex per noun.
+		if (maxId >= Math.max(count, postings)) {
+			throw new IllegalArgumentException("Synset id " + maxId + " in synsets file " + file + " at byte " + maxIdOffset
+					+ " exceeds the " + Math.max(count, postings) + " synsets and nouns in the file");
+		}
+	
+		String[] synsets = new String[maxId + 1];
+		String[] nouns = new String[postings];
+		int[] nounSynsets = new int[postings];
+		int p = 0;
+		for (SynsetChunk chunk : parsed) {
+			for (int i = 0; i < chunk.count; i++) {
+				synsets[chunk.ids[i]] = chunk.synsets[i];
+			}
+			System.arraycopy(chunk.nouns, 0, nouns, p, chunk.postings);
+			System.arraycopy(chunk.nounSynsets, 0, nounSynsets, p, chunk.postings);
+			p += chunk.postings;
+		}
+		return new Synsets(synsets, nouns, nounSynsets, count);
+	}
+	
+	
+	/**
+	 * Loads a hypernyms file, whose lines are {@code id,hypernym,hypernym,...}
+	 * @param file path to the hypernyms file
+	 * @return the edges from each synset to its hypernyms
+	 * @throws IllegalArgumentException if the file cannot be read or a line is malformed
+	 */
+	static Hypernyms loadHypernyms(final String file) {
+		List<EdgeChunk> parsed = parseBlocks(file, new BlockParser<EdgeChunk>() {
+			@Override
+			public EdgeChunk parse(byte[] data, int to, long base) {
+				return parseHypernyms(data, 0, to, base, file);
+			}
+		});
+	
+		int E = 0;
+		for (EdgeChunk chunk : parsed) {
+			E += chunk.E;
+		}
+		int[] tails = new int[E];
+		int[] heads = new int[E];
+		int e = 0;
+		for (EdgeChunk chunk : parsed) {
+			System.arraycopy(chunk.tails, 0, tails, e, chunk.E);
+			System.arraycopy(chunk.heads, 0, heads, e, chunk.E);
+			e += chunk.E;
+		}
+		return new Hypernyms(tails, heads);
+	}
+	
+	
+	/**
+	 * Synsets parsed from one chunk of a file
+	 * @author ckingsley
+	 *
+	 */
+	private static final class SynsetChunk {
+		int count, postings, maxId = -1;
+		long maxIdOffset;			// file offset of the line with the largest id
+		int[] ids = new int[16];
+		String[] synsets = new String[16];
+		String[] nouns = new String[16];
+		int[] nounSynsets = new int[16];
+	}
+	
+	
+	/**
+	 * Edges parsed from one chunk of a file
+	 * @author ckingsley
+	 *
+	 */
+	private static final class EdgeChunk {
+		int E;
+		int[] tails = new int[16];
+		int[] heads = new int[16];
+	}
+	
+	
+	/**
+	 * Parses the synset lines in data[from .. to)
+	 * @param data block of the file
+	 * @param from first byte of the chunk, at the start of a line
+	 * @param to end of the chunk, at the start of a line or the end of the file
+	 * @param base file offset of data[0], for error messages
+	 * @param file path of the file, for error messages
+	 * @return the parsed chunk
+	 */
+	private static SynsetChunk parseSynsets(byte[] data, int from, int to, long base, String file) {
+		SynsetChunk chunk = new SynsetChunk();
+		int i = from;
+		while (i < to) {
+			int lineEnd = lineEnd(data, i, to);
+			if (lineEnd == i) {
+				i = skipNewline(data, i, to);
+				continue;
+			}
+	
+			// id
+			int lineStart = i;
+			int id = 0, digits = 0;
+			while (i < lineEnd && data[i] >= '0' && data[i] <= '9') {
+				id = accumulate(id, data[i], "Synset id", "synsets file " + file, base + i);
+				i++;
+				digits++;
+			}
+			if (digits == 0 || i == lineEnd || data[i] != ',') {
+				throw malformed(file, base + i);
+			}
+			i++;
+	
+			// synset: nouns separated by spaces up to the next comma
+			int synsetStart = i;
+			int nounStart = i;
+			while (i <= lineEnd) {
+				if (i == lineEnd || data[i] == ',' || data[i] == ' ') {
+					if (i > nounStart) {
+						addPosting(chunk, new String(data, nounStart, i - nounStart, StandardCharsets.UTF_8), id);
+					}
+					if (i == lineEnd || data[i] == ',') break;
+					nounStart = i + 1;
+				}
+				i++;
+			}
+			if (id > chunk.maxId) {
+				chunk.maxIdOffset = base + lineStart;
+			}
+			addSynset(chunk, id, new String(data, synsetStart, i - synsetStart, StandardCharsets.UTF_8));
+	
+			// the gloss is not kept
+			i = skipNewline(data, lineEnd, to);
+		}
+		return chunk;
+	}
+	
+	
+	/**
+	 * Parses the hypernym lines in data[from .. to)
+	 * @param data block of the file
+	 * @param from first byte of the chunk, at the start of a line
+	 * @param to end of the chunk, at the start of a line or the end of the file
+	 * @param base file offset of data[0], for error messages
+	 * @param file path of the file, for error messages
+	 * @return the parsed chunk
+	 */
+	private static EdgeChunk parseHypernyms(byte[] data, int from, int to, long base, String file) {
+		EdgeChunk chunk = new EdgeChunk();
+		int i = from;
+		while (i < to) {
+			int lineEnd = lineEnd(data, i, to);
+			int v = -1;
+			while (i < lineEnd) {
+				int id = 0, digits = 0;
+				while (i < lineEnd && data[i] >= '0' && data[i] <= '9') {
+					id = accumulate(id, data[i], v == -1 ? "Synset id" : "Hypernym id", "hypernyms file " + file, base + i);
+					i++;
+					digits++;
+				}
+				if (digits == 0 || (i < lineEnd && data[i] != ',')) {
+					throw malformed(file, base + i);
+				}
+				i++;
+	
+				if (v == -1) {
+					v = id;
+				} else {
+					addEdge(chunk, v, id);
+				}
+			}
+			i = skipNewline(data, lineEnd, to);
+		}
+		return chunk;
+	}
+	
+	
+	/**
+	 * Appends a decimal digit to an id being parsed
+	 * @param id the digits parsed so far
+	 * @param digit the next digit character
+	 * @param field the field being parsed, e.g. "Hypernym id", for error messages
+	 * @param file kind and path of the file, e.g. "hypernyms file hypernyms.txt", for error messages
+	 * @param offset file offset of the digit
+	 * @return the id with the digit appended
+	 * @throws IllegalArgumentException if the id no longer fits in an int
+	 */
+	private static int accumulate(int id, byte digit, String field, String file, long offset) {
+		int d = digit - '0';
+		if (id > (Integer.MAX_VALUE - d) / 10) {
+			throw new IllegalArgumentException(field + " too large in " + file + " at byte " + offset);
+		}
+		return 10 * id + d;
+	}
+	
+	
+	/**
+	 * Returns the end of the line starting at i, excluding any carriage return
+	 * @param data block of the file
+	 * @param i start of the line
+	 * @param to end of the chunk
+	 * @return index of the '\r' or '\n' ending the line, or to
+	 */
+	private static int lineEnd(byte[] data, int i, int to) {
+		while (i < to && data[i] != '\n' && data[i] != '\r') {
+			i++;
+		}
+		return i;
+	}
+	
+	
+	/**
+	 * Skips the line terminator at i
+	 * @param data block of the file
+	 * @param i index of the '\r' or '\n' ending a line, or to
+	 * @param to end of the chunk
+	 * @return start of the next line
+	 */
+	private static int skipNewline(byte[] data, int i, int to) {
+		if (i < to && data[i] == '\r') i++;
+		if (i < to && data[i] == '\n') i++;
+		return i;
+	}
+	
+	
+	/**
+	 * Appends a (noun, synset id) posting to a chunk
+	 * @param chunk the chunk
+	 * @param noun the noun
+	 * @param id the synset id
+	 */
+	private static void addPosting(SynsetChunk chunk, String noun, int id) {
+		if (chunk.postings == chunk.nouns.length) {
+			chunk.nouns = Arrays.copyOf(chunk.nouns, 2 * chunk.postings);
+			chunk.nounSynsets = Arrays.copyOf(chunk.nounSynsets, 2 * chunk.postings);
+		}
+		chunk.nouns[chunk.postings] = noun;
+		chunk.nounSynsets[chunk.postings] = id;
+		chunk.postings++;
+	}
+	
+	
+	/**
+	 * Appends a synset to a chunk
+	 * @param chunk the chunk
+	 * @param id the synset id
+	 * @param synset the synset
+	 */
+	private static void addSynset(SynsetChunk chunk, int id, String synset) {
+		if (chunk.count == chunk.ids.length) {
+			chunk.ids = Arrays.copyOf(chunk.ids, 2 * chunk.count);
+			chunk.synsets = Arrays.copyOf(chunk.synsets, 2 * chunk.count);
+		}
+		chunk.ids[chunk.count] = id;
+		chunk.synsets[chunk.count] = synset;
+		chunk.count++;
+		chunk.maxId = Math.max(chunk.maxId, id);
+	}
+	
+	
+	/**
+	 * Appends an edge to a chunk
+	 * @param chunk the chunk
+	 * @param v tail of the edge
+	 * @param w head of the edge
+	 */
+	private static void addEdge(EdgeChunk chunk, int v, int w) {
+		if (chunk.E == chunk.tails.length) {
+			chunk.tails = Arrays.copyOf(chunk.tails, 2 * chunk.E);
+			chunk.heads = Arrays.copyOf(chunk.heads, 2 * chunk.E);
+		}
+		chunk.tails[chunk.E] = v;
+		chunk.heads[chunk.E] = w;
+		chunk.E++;
+	}
+	
+	
+	/**
+	 * Parser of the complete lines at the start of one block of a file
+	 * @author ckingsley
+	 *
+	 */
+	private interface BlockParser<T> {
+		/**
+		 * Parses data[0 .. to)
+		 * @param data the block
+		 * @param to end of the last complete line of the block
+		 * @param base file offset of data[0], for error messages
+		 * @return the parsed block
+		 */
+		T parse(byte[] data, int to, long base);
+	}
+	
+	
+	/**
+	 * Streams a file block by block, parsing every block on the common fork-join pool while the next is read
+	 * @param file path to the file
+	 * @param parser parser of one block
+	 * @return the parsed blocks, in file order
+	 * @throws IllegalArgumentException if the file cannot be read or a block failed with one
+	 */
+	private static <T> List<T> parseBlocks(String file, final BlockParser<T> parser) {
+		int window = 2 * Runtime.getRuntime().availableProcessors();
+		ArrayDeque<Future<T>> pending = new ArrayDeque<Future<T>>();
+		List<T> results = new ArrayList<T>();
+		try (InputStream in = new FileInputStream(file)) {
+			byte[] block = new byte[BLOCK];
+			int filled = 0;
+			long base = 0;
+			boolean eof = false;
+			while (!eof) {
+				while (filled < block.length) {
+					int n = in.read(block, filled, block.length - filled);
+					if (n < 0) {
+						eof = true;
+						break;
+					}
+					filled += n;
+				}
+				int to = eof ? filled : lastLineEnd(block, filled);
+				if (to == 0) {
+					// a single line fills the block
+					if (!eof) block = Arrays.copyOf(block, 2 * block.length);
+					continue;
+				}
+	
+				// the partial line after the cut starts the next block
+				byte[] next = new byte[Math.max(BLOCK, 2 * (filled - to))];
+				System.arraycopy(block, to, next, 0, filled - to);
+				final byte[] data = block;
+				final int end = to;
+				final long offset = base;
+				pending.add(ForkJoinPool.commonPool().submit(new Callable<T>() {
+					@Override
+					public T call() {
+						return parser.parse(data, end, offset);
+					}
+				}));
+				if (pending.size() > window) {
+					results.add(result(pending.poll()));
+				}
+				block = next;
+				filled -= to;
+				base += to;
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not read " + file, e);
+		}
+		while (!pending.isEmpty()) {
+			results.add(result(pending.poll()));
+		}
+		return results;
+	}
+	
+	
+	/**
+	 * Returns the end of the last complete line in a block, recognising the same terminators as lineEnd()
+	 * @param data the block
+	 * @param filled number of bytes in the block
+	 * @return index one past the last '\n' or '\r', or 0 if there is none
+	 */
+	private static int lastLineEnd(byte[] data, int filled) {
+		for (int i = filled; i > 0; i--) {
+			if (data[i - 1] == '\n') return i;
+			// a '\r' in the last byte may be the first half of a "\r\n" split across blocks
+			if (data[i - 1] == '\r' && i < filled) return i;
+		}
+		return 0;
+	}
+	
+	
+	/**
+	 * Waits for a parse task and returns its result
+	 * @param future the task
+	 * @return result of the task
+	 * @throws IllegalArgumentException if the task failed with one
+	 */
+	private static <T> T result(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading WordNet", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			// the pool may rethrow a copy of the task's exception that wraps the original, with its class in the message
+			if (cause.getCause() != null && cause.getCause().getClass() == cause.getClass()) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+	
+	
+	/**
+	 * Returns the exception for a malformed line
+	 * @param file path of the file
+	 * @param offset file offset of the problem
+	 * @return the exception to throw
+	 */
+	private static IllegalArgumentException malformed(String file, long offset) {
+		return new IllegalArgumentException("Malformed line in " + file + " at byte " + offset);
+	}
+}
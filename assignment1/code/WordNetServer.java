@@ -0,0 +1,337 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loopback TCP server that loads a WordNet once and answers queries from other processes over a line protocol.
+ * Each request is one line of space-separated words and gets exactly one line back, {@code OK <answer>} or
+ * {@code ERR <reason>}:
+ * <pre>
+ *   distance nounA nounB      OK 7
+ *   sap nounA nounB           OK synset
+ *   isNoun word               OK true
+ *   outcast noun1 noun2 ...   OK noun
+ *   quit                      (closes the connection)
+ * </pre>
+ * Requests may be pipelined: a client can send any number of lines before reading the answers, which come
+ * back in request order.  Answers are buffered while more requests are already waiting and flushed once the
+ * connection runs dry, so a pipelined burst costs few writes.
+ *
+ * Every connection is served by its own thread, a virtual thread on JVMs that have them (looked up
+ * reflectively, so the class still runs on older JVMs, where each connection gets a daemon platform thread).
+ * Connections block on socket reads, but do not answer queries themselves: SAP, ReachabilityIndex and
+ * nearest() keep O(V) search workspaces per thread, which a short-lived connection thread would allocate on
+ * its first query and throw away when it closes.  Each query is instead handed to a fixed pool of one
+ * platform thread per processor, whose workspaces are allocated once and reused by every connection.
+ * WordNet is immutable, so the query threads share it without locking.
+ * @author ckingsley
+ *
+ */
+public class WordNetServer implements Closeable {
+	static final int DEFAULT_PORT = 7777;
+	private static final int ACCEPT_BACKOFF_MILLIS = 100;	// pause after a failed accept()
+	private final WordNet wordNet;
+	private final Outcast outcast;
+	private final ServerSocket server;
+	private final ThreadFactory threads;
+	private final ExecutorService queryThreads;
+	private final AtomicInteger connections = new AtomicInteger();	// open connections
+	private final Thread acceptor;
+	
+	
+	/**
+	 * Constructor, starts accepting connections on the loopback interface
+	 * @param wordNet the WordNet to serve
+	 * @param port port to listen on, 0 to pick a free one
+	 * @throws IllegalArgumentException if the port cannot be bound
+	 */
+	public WordNetServer(WordNet wordNet, int port) {
+		if (wordNet == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		this.wordNet = wordNet;
+		this.outcast = new Outcast(wordNet);
+		try {
+			server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("cannot listen on port " + port, e);
+		}
+		threads = connectionThreads();
+		queryThreads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+				new PlatformThreads("wordnet-query-"));
+		acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "wordnet-acceptor");
+		acceptor.start();
+	}
+	
+	
+	/**
+	 * Returns the port the server listens on
+	 * @return the port
+	 */
+	public int port() {
+		return server.getLocalPort();
+	}
+	
+	
+	/**
+	 * Does the server run its connections on virtual threads?
+	 * @return {@code true} if connections run on virtual threads, {@code false} if on platform threads
+	 */
+	public boolean virtualThreads() {
+		return !(threads instanceof PlatformThreads);
+	}
+	
+	
+	/**
+	 * Stops accepting connections.  Connections already open are served until their clients close them, and the
+	 * query threads are shut down once the last of them has closed.
+	 */
+	@Override
+	public void close() {
+		try {
+			server.close();
+			acceptor.join();
+		} catch (IOException e) {
+			// closing a listening socket has nothing left to report
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		// the acceptor has stopped, so no connection opens after this check; if some are still open, the last
+		// one to close shuts the query threads down
+		if (connections.get() == 0) {
+			queryThreads.shutdown();
+		}
+	}
+	
+	
+	/**
+	 * Answers one request line.  A request that fails for any other reason than a bad argument is answered with
+	 * a plain reason; the exception itself is never sent to the client.
+	 * @param line the request
+	 * @return the answer line, without line terminator
+	 */
+	String answer(String line) {
+		String[] words = line.trim().split("\\s+");
+		try {
+			switch (words[0]) {
+			case "distance":
+				arguments(words, 2);
+				return "OK " + wordNet.distance(words[1], words[2]);
+			case "sap":
+				arguments(words, 2);
+				return "OK " + wordNet.sap(words[1], words[2]);
+			case "isNoun":
+				arguments(words, 1);
+				return "OK " + wordNet.isNoun(words[1]);
+			case "outcast":
+				if (words.length < 3) {
+					throw new IllegalArgumentException("outcast needs at least 2 nouns");
+				}
+				String[] nouns = new String[words.length - 1];
+				System.arraycopy(words, 1, nouns, 0, nouns.length);
+				return "OK " + outcast.outcast(nouns);
+			default:
+				return "ERR unknown request '" + words[0] + "'";
+			}
+		} catch (IllegalArgumentException e) {
+			return "ERR " + (e.getMessage() == null ? "invalid request" : e.getMessage());
+		} catch (RuntimeException e) {
+			return "ERR internal error";
+		}
+	}
+	
+	
+	/**
+	 * Answers one request line on a query thread, waiting for the answer
+	 * @param line the request
+	 * @return the answer line, without line terminator
+	 */
+	private String answerOnQueryThread(final String line) {
+		try {
+			return queryThreads.submit(new Callable<String>() {
+				@Override
+				public String call() {
+					return answer(line);
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return "ERR interrupted";
+		} catch (ExecutionException e) {
+			// answer() returns every exception as a reason, so only an Error gets here
+			return "ERR internal error";
+		}
+	}
+	
+	
+	/**
+	 * Accepts connections until the server socket is closed, handing each to a connection thread.  The acceptor
+	 * is the only non-daemon thread, so a failed accept() (out of file descriptors, connection aborted) must not
+	 * end it: it backs off and accepts again, and only a closed server socket stops it.
+	 */
+	private void accept() {
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException e) {
+				if (server.isClosed()) return;
+				try {
+					Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				continue;
+			}
+			connections.incrementAndGet();
+			try {
+				threads.newThread(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				}).start();
+			} catch (RuntimeException | OutOfMemoryError e) {
+				// no thread for the connection: drop it, or close() would wait for it forever
+				try {
+					socket.close();
+				} catch (IOException ce) {
+					// the connection is dropped either way
+				}
+				release();
+			}
+		}
+	}
+	
+	
+	/**
+	 * Answers the requests of one connection until the client closes it or sends quit
+	 * @param socket the connection
+	 */
+	private void serve(Socket socket) {
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+				Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+			s.setTcpNoDelay(true);
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().equals("quit")) break;
+				if (line.trim().isEmpty()) continue;
+				out.write(answerOnQueryThread(line));
+				out.write('\n');
+				// more pipelined requests already buffered: answer them before flushing
+				if (!in.ready()) {
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			// the client went away; nothing left to answer
+		} finally {
+			release();
+		}
+	}
+	
+	
+	/**
+	 * Counts a connection as closed, shutting the query threads down if it was the last one of a closed server
+	 */
+	private void release() {
+		if (connections.decrementAndGet() == 0 && server.isClosed()) {
+			queryThreads.shutdown();
+		}
+	}
+	
+	
+	/**
+	 * Throws an IllegalArgumentException unless a request has the given number of arguments
+	 * @param words the request words, the request name first
+	 * @param count expected number of arguments
+	 */
+	private static void arguments(String[] words, int count) {
+		if (words.length != count + 1) {
+			throw new IllegalArgumentException(words[0] + " takes " + count + " argument(s)");
+		}
+	}
+	
+	
+	/**
+	 * Returns a factory of virtual threads if the JVM has them (Java 21+), otherwise of daemon platform threads
+	 * @return the thread factory for connections
+	 */
+	private static ThreadFactory connectionThreads() {
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			Object ofVirtual = Thread.class.getMethod("ofVirtual").invoke(null);
+			ofVirtual = builder.getMethod("name", String.class, long.class).invoke(ofVirtual, "wordnet-connection-", 0L);
+			return (ThreadFactory) builder.getMethod("factory").invoke(ofVirtual);
+		} catch (ReflectiveOperationException e) {
+			return new PlatformThreads("wordnet-connection-");
+		}
+	}
+	
+	
+	/**
+	 * Factory of daemon platform threads, for the query threads and for connections where virtual threads are
+	 * not available
+	 * @author ckingsley
+	 *
+	 */
+	private static final class PlatformThreads implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+	
+		/**
+		 * Constructor
+		 * @param prefix thread name prefix, followed by a sequence number
+		 */
+		PlatformThreads(String prefix) {
+			this.prefix = prefix;
+		}
+	
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + count.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+	
+	
+	/**
+	 * Loads a WordNet and serves it until the process is killed
+	 * @param args synsets.txt hypernyms.txt [port]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			StdOut.println("Usage: java WordNetServer synsets.txt hypernyms.txt [port]");
+			return;
+		}
+		int port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+		long start = System.nanoTime();
+		WordNet wordNet = new WordNet(args[0], args[1]);
+		WordNetServer server = new WordNetServer(wordNet, port);
+		StdOut.printf("loaded in %.1f s, listening on %s:%d (%s threads)%n", (System.nanoTime() - start) / 1e9,
+				InetAddress.getLoopbackAddress().getHostAddress(), server.port(), server.virtualThreads() ? "virtual" : "platform");
+	}
+}
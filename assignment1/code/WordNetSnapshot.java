@@ -0,0 +1,295 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compile-once binary snapshot of a WordNet, so that a WordNet can be opened by memory-mapping one file
+ * instead of parsing synsets.txt and hypernyms.txt.
+ *
+ * All values are big-endian ints; strings are UTF-8 and stored back to back with an offset table.
+ * <pre>
+ *     magic, version, number of nouns N, number of noun postings P, number of synset ids S, V, E, R
+ *     noun string offsets [N+1], posting offsets [N+1], postings [P]     (nouns in sorted order)
+ *     synset string offsets [S+1]                                        (by id, empty for unused ids)
+ *     hypernym row offsets [V+1], hypernym targets [E]
+ *     external ids [R]                                                   (R is S if relabeled, else 0)
+ *     noun string bytes, synset string bytes
+ * </pre>
+ * The integer tables are the arrays of NounDictionary and CompactDigraph, so they are bulk-copied out of the
+ * mapping as they are; only the strings need decoding.  A relabeled WordNet is written in its internal ids
+ * together with the synsets.txt id of each, so it opens with the same memory layout.
+ * Usage: {@code java WordNetSnapshot synsets.txt hypernyms.txt wordnet.wns}
+ * @author ckingsley
+ *
+ */
+public final class WordNetSnapshot {
+	private static final int MAGIC = 0x574e5331;	// "WNS1"
+	private static final int VERSION = 3;
+	private static final int HEADER_INTS = 8;
+	
+	
+	/**
+	 * Not instantiable
+	 */
+	private WordNetSnapshot() { }
+	
+	
+	/**
+	 * Writes a snapshot of a WordNet
+	 * @param wordNet the WordNet to write
+	 * @param file path of the snapshot file
+	 * @throws IllegalArgumentException if the file cannot be written
+	 */
+	public static void write(WordNet wordNet, String file) {
+		NounDictionary nouns = wordNet.nounDictionary();
+		String[] synsets = wordNet.synsetTable();
+		CompactDigraph G = wordNet.hypernyms();
+		int[] externalIds = wordNet.externalIds();
+		
+		int N = nouns.size();
+		int P = nouns.postings();
+		int S = synsets.length;
+		
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(N);
+			out.writeInt(P);
+			out.writeInt(S);
+			out.writeInt(G.V());
+			out.writeInt(G.E());
+			out.writeInt(externalIds == null ? 0 : externalIds.length);
+			
+			// noun dictionary
+			ByteArrayOutputStream nounBytes = new ByteArrayOutputStream();
+			out.writeInt(0);
+			for (int i = 0; i < N; i++) {
+				nounBytes.write(nouns.noun(i).getBytes(StandardCharsets.UTF_8));
+				out.writeInt(nounBytes.size());
+			}
+			for (int i = 0; i <= N; i++) {
+				out.writeInt(i < N ? nouns.postingStart(i) : P);
+			}
+			for (int p = 0; p < P; p++) {
+				out.writeInt(nouns.posting(p));
+			}
+			
+			// synset table
+			ByteArrayOutputStream synsetBytes = new ByteArrayOutputStream();
+			out.writeInt(0);
+			for (int id = 0; id < S; id++) {
+				if (synsets[id] != null) {
+					synsetBytes.write(synsets[id].getBytes(StandardCharsets.UTF_8));
+				}
+				out.writeInt(synsetBytes.size());
+			}
+			
+			// hypernym edges
+			for (int v = 0; v <= G.V(); v++) {
+				out.writeInt(v < G.V() ? G.begin(v) : G.E());
+			}
+			for (int e = 0; e < G.E(); e++) {
+				out.writeInt(G.target(e));
+			}
+			if (externalIds != null) {
+				for (int id : externalIds) {
+					out.writeInt(id);
+				}
+			}
+	
+			nounBytes.writeTo(out);
+			synsetBytes.writeTo(out);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not write snapshot to " + file, e);
+		}
+	}
+	
+	
+	/**
+	 * Opens a WordNet from a snapshot file by memory-mapping it
+	 * @param file path of the snapshot file
+	 * @return the WordNet
+	 * @throws IllegalArgumentException if the file cannot be read or is not a snapshot
+	 */
+	public static WordNet open(String file) {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return read(buffer, file);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not read snapshot from " + file, e);
+		}
+	}
+	
+	
+	/**
+	 * Decodes a mapped snapshot, checking every table against the header so that a truncated or damaged file
+	 * fails here rather than inside a later search
+	 * @param buffer the mapped file
+	 * @param file path of the file, for error messages
+	 * @return the WordNet
+	 * @throws IllegalArgumentException if the file is not a snapshot or is damaged
+	 */
+	private static WordNet read(ByteBuffer buffer, String file) {
+		try {
+			IntBuffer ints = buffer.asIntBuffer();
+			if (ints.remaining() < HEADER_INTS || ints.get() != MAGIC) {
+				throw new IllegalArgumentException(file + " is not a WordNet snapshot");
+			}
+			if (ints.get() != VERSION) {
+				throw new IllegalArgumentException(file + " was written by an unsupported snapshot version");
+			}
+			int N = ints.get();
+			int P = ints.get();
+			int S = ints.get();
+			int V = ints.get();
+			int E = ints.get();
+			int R = ints.get();
+			if (N < 0 || P < 0 || S < 0 || V < 0 || E < 0) {
+				throw new IllegalArgumentException(file + " is corrupt: negative table size in header");
+			}
+			if (V != S) {
+				throw new IllegalArgumentException(file + " is corrupt: " + V + " vertices for " + S + " synsets");
+			}
+			if (R != 0 && R != S) {
+				throw new IllegalArgumentException(file + " is corrupt: " + R + " external ids for " + S + " synsets");
+			}
+			// check the counts against the file length before allocating for them
+			long tableBytes = 4L * (HEADER_INTS + 2L * (N + 1L) + P + (S + 1L) + (V + 1L) + E + R);
+			if (tableBytes > buffer.limit()) {
+				throw new IllegalArgumentException(file + " is corrupt: " + N + " nouns, " + P + " postings, " + S
+						+ " synsets and " + E + " edges do not fit in its length");
+			}
+		
+			int[] nounOffsets = bulkGet(ints, N + 1);
+			int[] postingOffsets = bulkGet(ints, N + 1);
+			int[] postings = bulkGet(ints, P);
+			int[] synsetOffsets = bulkGet(ints, S + 1);
+			int[] rowOffsets = bulkGet(ints, V + 1);
+			int[] targets = bulkGet(ints, E);
+			int[] externalIds = R == 0 ? null : bulkGet(ints, R);
+			
+			// a damaged file must fail here, not with an array index out of bounds inside a search
+			checkOffsets(nounOffsets, "noun string", file);
+			checkOffsets(synsetOffsets, "synset string", file);
+			if (tableBytes + nounOffsets[N] + synsetOffsets[S] != buffer.limit()) {
+				throw new IllegalArgumentException(file + " is corrupt: " + nounOffsets[N] + " noun and "
+						+ synsetOffsets[S] + " synset string bytes do not match its length");
+			}
+			if (checkOffsets(postingOffsets, "posting", file) != P) {
+				throw new IllegalArgumentException(file + " is corrupt: postings span " + postingOffsets[N] + " of " + P);
+			}
+			for (int p = 0; p < P; p++) {
+				if (postings[p] < 0 || postings[p] >= S) {
+					throw new IllegalArgumentException(file + " is corrupt: posting " + postings[p] + " is not a synset");
+				}
+			}
+			if (checkOffsets(rowOffsets, "hypernym row", file) != E) {
+				throw new IllegalArgumentException(file + " is corrupt: hypernym rows span " + rowOffsets[V] + " of " + E
+						+ " edges");
+			}
+			for (int e = 0; e < E; e++) {
+				if (targets[e] < 0 || targets[e] >= V) {
+					throw new IllegalArgumentException(file + " is corrupt: hypernym " + targets[e] + " is not a vertex");
+				}
+			}
+			if (externalIds != null) {
+				boolean[] seen = new boolean[S];
+				for (int id : externalIds) {
+					if (id < 0 || id >= S || seen[id]) {
+						throw new IllegalArgumentException(file + " is corrupt: external ids are not a permutation of "
+								+ "the synset ids");
+					}
+					seen[id] = true;
+				}
+			}
+			
+			buffer.position((int) tableBytes);
+			byte[] nounBytes = new byte[nounOffsets[N]];
+			byte[] synsetBytes = new byte[synsetOffsets[S]];
+			buffer.get(nounBytes);
+			buffer.get(synsetBytes);
+			
+			String[] nouns = new String[N];
+			for (int i = 0; i < N; i++) {
+				nouns[i] = new String(nounBytes, nounOffsets[i], nounOffsets[i + 1] - nounOffsets[i], StandardCharsets.UTF_8);
+			}
+			String[] synsets = new String[S];
+			for (int id = 0; id < S; id++) {
+				if (synsetOffsets[id + 1] > synsetOffsets[id]) {
+					synsets[id] = new String(synsetBytes, synsetOffsets[id], synsetOffsets[id + 1] - synsetOffsets[id],
+							StandardCharsets.UTF_8);
+				}
+			}
+			
+			return new WordNet(new NounDictionary(nouns, postingOffsets, postings), synsets,
+					new CompactDigraph(rowOffsets, targets), externalIds);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException(file + " is corrupt: it ends before its tables", e);
+		}
+	}
+	
+	
+	/**
+	 * Throws an IllegalArgumentException unless an offset table starts at 0 and never decreases
+	 * @param offsets the offset table
+	 * @param table name of the table, for error messages
+	 * @param file path of the file, for error messages
+	 * @return the last offset, the end of the last entry
+	 */
+	private static int checkOffsets(int[] offsets, String table, String file) {
+		if (offsets[0] != 0) {
+			throw new IllegalArgumentException(file + " is corrupt: " + table + " offsets start at " + offsets[0]);
+		}
+		for (int i = 1; i < offsets.length; i++) {
+			if (offsets[i] < offsets[i - 1]) {
+				throw new IllegalArgumentException(file + " is corrupt: " + table + " " + (i - 1) + " ends before it starts");
+			}
+		}
+		return offsets[offsets.length - 1];
+	}
+	
+	
+	/**
+	 * Copies the next n ints of a buffer into a new array
+	 * @param ints the buffer
+	 * @param n number of ints
+	 * @return the ints
+	 */
+	private static int[] bulkGet(IntBuffer ints, int n) {
+		int[] a = new int[n];
+		ints.get(a);
+		return a;
+	}
+	
+	
+	/**
+	 * Converts the WordNet text files to a snapshot
+	 * @param args synsets file, hypernyms file, snapshot file
+	 */
+	public static void main(String[] args) {
+		if (args.length != 3) {
+			StdOut.println("Usage: java WordNetSnapshot synsets.txt hypernyms.txt wordnet.wns");
+			return;
+		}
+		long start = System.nanoTime();
+		WordNet wordNet = new WordNet(args[0], args[1]);
+		long parsed = System.nanoTime();
+		write(wordNet, args[2]);
+		long written = System.nanoTime();
+		open(args[2]);
+		long opened = System.nanoTime();
+	
+		StdOut.printf("parsed text files in %d ms, wrote %s in %d ms, opened it in %d ms\n",
+				(parsed - start) / 1000000, args[2], (written - parsed) / 1000000, (opened - written) / 1000000);
+	}
+}